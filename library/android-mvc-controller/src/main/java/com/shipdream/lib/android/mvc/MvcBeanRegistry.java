@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.android.mvc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Beans created by {@link MvcGraph} indexed by identity and by the types of their models, so a
+ * disposed bean is removed in constant time and models of a type are saved or restored without
+ * scanning all beans. Beans may be added by pre-warming threads while the main thread saves or
+ * restores models.
+ */
+class MvcBeanRegistry {
+    private final Map<MvcBean, Class> modelTypes = new IdentityHashMap<>();
+    private final Map<Class, Set<MvcBean>> beansByModelType = new HashMap<>();
+
+    /**
+     * Add the bean indexed by its {@link MvcBean#modelType()}
+     */
+    synchronized void add(MvcBean bean) {
+        if (modelTypes.containsKey(bean)) {
+            return;
+        }
+        Class modelType = bean.modelType();
+        modelTypes.put(bean, modelType);
+        Set<MvcBean> beans = beansByModelType.get(modelType);
+        if (beans == null) {
+            beans = Collections.newSetFromMap(new IdentityHashMap<MvcBean, Boolean>());
+            beansByModelType.put(modelType, beans);
+        }
+        beans.add(bean);
+    }
+
+    synchronized void remove(MvcBean bean) {
+        if (!modelTypes.containsKey(bean)) {
+            return;
+        }
+        Class modelType = modelTypes.remove(bean);
+        Set<MvcBean> beans = beansByModelType.get(modelType);
+        beans.remove(bean);
+        if (beans.isEmpty()) {
+            beansByModelType.remove(modelType);
+        }
+    }
+
+    synchronized boolean contains(MvcBean bean) {
+        return modelTypes.containsKey(bean);
+    }
+
+    synchronized int size() {
+        return modelTypes.size();
+    }
+
+    /**
+     * @return Copy of the model types of the beans, which may include null for beans without model
+     */
+    synchronized List<Class> modelTypes() {
+        return new ArrayList<>(beansByModelType.keySet());
+    }
+
+    /**
+     * @return Copy of the beans whose model is of the given type
+     */
+    synchronized List<MvcBean> beansOf(Class modelType) {
+        Set<MvcBean> beans = beansByModelType.get(modelType);
+        return beans == null ? Collections.<MvcBean>emptyList() : new ArrayList<>(beans);
+    }
+}
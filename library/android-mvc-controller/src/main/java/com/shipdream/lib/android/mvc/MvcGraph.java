@@ -28,6 +28,7 @@ import com.shipdream.lib.android.mvc.event.bus.internal.EventBusImpl;
 import com.shipdream.lib.poke.Component;
 import com.shipdream.lib.poke.Consumer;
 import com.shipdream.lib.poke.Graph;
+import com.shipdream.lib.poke.GraphSnapshot;
 import com.shipdream.lib.poke.ImplClassLocator;
 import com.shipdream.lib.poke.ImplClassLocatorByPattern;
 import com.shipdream.lib.poke.ImplClassNotFoundException;
@@ -49,10 +50,19 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -88,14 +98,28 @@ public class MvcGraph {
     private Logger logger = LoggerFactory.getLogger(getClass());
     ScopeCache singletonScopeCache;
     DefaultProviderFinder defaultProviderFinder;
-    List<MvcBean> mvcBeans = new ArrayList<>();
+    MvcBeanRegistry mvcBeans = new MvcBeanRegistry();
 
     //Composite graph to hide methods
     Graph graph;
 
     public MvcGraph(BaseDependencies baseDependencies)
             throws ProvideException, ProviderConflictException {
-        singletonScopeCache = new ScopeCache();
+        this(baseDependencies, new ScopeCache());
+    }
+
+    /**
+     * Construct the graph with a custom cache for singletons. For example, a
+     * {@link com.shipdream.lib.poke.LruScopeCache} keeps a few controllers alive after they are
+     * released so navigating back and forth doesn't rebuild them. {@link MvcBean#onDisposed()} is
+     * called when the cache finally frees them.
+     *
+     * @param baseDependencies The dependencies for all controllers
+     * @param singletonScopeCache The cache of singletons
+     */
+    public MvcGraph(BaseDependencies baseDependencies, ScopeCache singletonScopeCache)
+            throws ProvideException, ProviderConflictException {
+        this.singletonScopeCache = singletonScopeCache;
         defaultProviderFinder = new DefaultProviderFinder(MvcGraph.this);
         defaultProviderFinder.register(new __Component(singletonScopeCache, baseDependencies));
 
@@ -111,7 +135,7 @@ public class MvcGraph {
                     if (obj instanceof MvcBean) {
                         MvcBean bean = (MvcBean) obj;
                         bean.onDisposed();
-                        mvcBeans.remove(obj);
+                        mvcBeans.remove(bean);
 
                         logger.trace("--MvcBean freed - '{}'.",
                                 obj.getClass().getSimpleName());
@@ -155,6 +179,47 @@ public class MvcGraph {
         graph.clearMonitors();
     }
 
+    /**
+     * Defer disposing singletons that are no longer referenced, so a controller released by the
+     * fragment being replaced and injected again by the next one is not disposed and created
+     * again. Deferred singletons are disposed when a navigation settles or when any instance is
+     * released after their grace period has passed.
+     *
+     * @param gracePeriod How long to defer. 0, which is the default, disposes singletons right
+     *                    away.
+     * @param unit The unit of the grace period
+     */
+    public void setDisposalGracePeriod(long gracePeriod, TimeUnit unit) {
+        try {
+            graph.setDisposalGracePeriod(gracePeriod, unit);
+        } catch (ProviderMissingException e) {
+            throw new MvcGraphException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Dispose all singletons deferred by {@link #setDisposalGracePeriod(long, TimeUnit)} that are
+     * still not referenced.
+     */
+    public void disposeDeferred() {
+        try {
+            graph.disposeDeferred();
+        } catch (ProviderMissingException e) {
+            throw new MvcGraphException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Take a snapshot of all providers of the graph including the ones located for unregistered
+     * contracts, with their reference counts, owners and cached instances. Export it by
+     * {@link GraphSnapshot#toJson()} or {@link GraphSnapshot#toDot()} to find controllers leaking
+     * because a release is missed.
+     * @return The snapshot
+     */
+    public GraphSnapshot snapshot() {
+        return graph.snapshot();
+    }
+
     /**
      * Register {@link OnFreedListener} which will be called when the last cached
      * instance of an injected contract is freed.
@@ -353,6 +418,21 @@ public class MvcGraph {
         }
     }
 
+    /**
+     * Inject all fields annotated by {@link Inject} of every target in one pass. It's cheaper than
+     * calling {@link #inject(Object)} for each of them when a batch of siblings, e.g. fragments of
+     * a view pager, are injected back to back.
+     *
+     * @param targets The target objects whose fields annotated by {@link Inject} will be injected.
+     */
+    public void injectAll(Collection<?> targets) {
+        try {
+            graph.injectAll(targets, Inject.class);
+        } catch (PokeException e) {
+            throw new MvcGraphException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Release cached instances held by fields of target object. References of cache of the
      * instances will be decremented. Once the reference count of a contract type reaches 0, it will
@@ -368,6 +448,50 @@ public class MvcGraph {
         }
     }
 
+    /**
+     * Release cached instances held by fields of every target in one pass. See
+     * {@link #release(Object)}.
+     *
+     * @param targets of which the object fields will be released.
+     */
+    public void releaseAll(Collection<?> targets) {
+        try {
+            graph.releaseAll(targets, Inject.class);
+        } catch (ProviderMissingException e) {
+            throw new MvcGraphException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Pre-warm singletons before they are injected for the first time. Every type is referenced
+     * by a task sent to the given executor so independent dependency branches are built in
+     * parallel, while dependencies shared by several types are still created only once and cached
+     * by the singleton {@link ScopeCache}. It's handy to call this in Application.onCreate so heavy
+     * managers are not created on the main thread by the first fragment injecting them.
+     *
+     * <p>The returned {@link Prewarming} holds a reference of every pre-warmed instance so they
+     * survive until real injections take them over. Call {@link Prewarming#release()} when the
+     * pre-warmed instances are no longer needed to be kept alive.</p>
+     *
+     * @param executorService The executor to build the instances on
+     * @param types The types to pre-warm
+     * @return The handle of the pre-warming
+     */
+    public Prewarming prewarm(ExecutorService executorService, Class<?>... types) {
+        //Each type is referenced once so the handle holds one reference per instance
+        Set<Class<?>> distinctTypes = new LinkedHashSet<>(Arrays.asList(types));
+        final Prewarming prewarming = new Prewarming(this, distinctTypes.size());
+        for (final Class<?> type : distinctTypes) {
+            executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    prewarming.prewarm(type);
+                }
+            });
+        }
+        return prewarming;
+    }
+
     /**
      * Register all providers listed by the {@link Component}
      *
@@ -395,25 +519,136 @@ public class MvcGraph {
      * @param modelKeeper The model keeper managing the model
      */
     public void saveAllModels(ModelKeeper modelKeeper) {
-        int size = mvcBeans.size();
-        for (int i = 0; i < size; i++) {
-            MvcBean bean = mvcBeans.get(i);
-            modelKeeper.saveModel(bean.getModel(), bean.modelType());
+        for (Class modelType : mvcBeans.modelTypes()) {
+            saveModels(modelKeeper, modelType);
         }
     }
 
     /**
-     * Restore model of all injected objects
+     * Save model of the injected objects whose model is of the given type
      * @param modelKeeper The model keeper managing the model
+     * @param modelType The type of the models to save
      */
     @SuppressWarnings("unchecked")
+    public void saveModels(ModelKeeper modelKeeper, Class modelType) {
+        for (MvcBean bean : mvcBeans.beansOf(modelType)) {
+            modelKeeper.saveModel(bean.getModel(), modelType);
+        }
+    }
+
+    /**
+     * Restore model of all injected objects
+     * @param modelKeeper The model keeper managing the model
+     */
     public void restoreAllModels(ModelKeeper modelKeeper) {
-        int size = mvcBeans.size();
-        for (int i = 0; i < size; i++) {
-            MvcBean bean = mvcBeans.get(i);
-            Object model = modelKeeper.retrieveModel(bean.modelType());
-            if(model != null) {
-                mvcBeans.get(i).restoreModel(model);
+        for (Class modelType : mvcBeans.modelTypes()) {
+            restoreModels(modelKeeper, modelType);
+        }
+    }
+
+    /**
+     * Restore model of the injected objects whose model is of the given type
+     * @param modelKeeper The model keeper managing the model
+     * @param modelType The type of the models to restore
+     */
+    @SuppressWarnings("unchecked")
+    public void restoreModels(ModelKeeper modelKeeper, Class modelType) {
+        List<MvcBean> beans = mvcBeans.beansOf(modelType);
+        if (beans.isEmpty()) {
+            return;
+        }
+        Object model = modelKeeper.retrieveModel(modelType);
+        if (model != null) {
+            for (MvcBean bean : beans) {
+                bean.restoreModel(model);
+            }
+        }
+    }
+
+    /**
+     * Handle of singletons being pre-warmed by {@link #prewarm(ExecutorService, Class[])}. It holds
+     * a reference of every pre-warmed instance until {@link #release()} is called.
+     */
+    public static class Prewarming {
+        private final Logger logger = LoggerFactory.getLogger(MvcGraph.class);
+        private final MvcGraph mvcGraph;
+        private final CountDownLatch latch;
+        private final Map<Object, Class> instances = new IdentityHashMap<>();
+        private final List<PokeException> errors = new CopyOnWriteArrayList<>();
+        private boolean released;
+
+        private Prewarming(MvcGraph mvcGraph, int count) {
+            this.mvcGraph = mvcGraph;
+            this.latch = new CountDownLatch(count);
+        }
+
+        private void prewarm(Class<?> type) {
+            try {
+                Object instance = mvcGraph.graph.reference(type, null, Inject.class);
+                boolean keep;
+                synchronized (this) {
+                    keep = !released;
+                    if (keep) {
+                        instances.put(instance, type);
+                    }
+                }
+                if (!keep) {
+                    //Released before the instance is built
+                    dereference(instance, type);
+                }
+            } catch (PokeException e) {
+                logger.warn("Failed to pre-warm {}", type.getName(), e);
+                errors.add(e);
+            } finally {
+                latch.countDown();
+            }
+        }
+
+        /**
+         * @return Whether all types have been pre-warmed, successfully or not
+         */
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        /**
+         * Block the calling thread until all types have been pre-warmed.
+         * @throws InterruptedException when the calling thread is interrupted while waiting
+         * @throws MvcGraphException when any of the types failed to be pre-warmed
+         */
+        public void await() throws InterruptedException {
+            latch.await();
+            if (!errors.isEmpty()) {
+                PokeException e = errors.get(0);
+                throw new MvcGraphException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Drop the references held for the pre-warmed instances. Instances not injected anywhere
+         * else will be freed. Instances still being built are dropped as soon as they are done.
+         */
+        public void release() {
+            List<Map.Entry<Object, Class>> entries;
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                entries = new ArrayList<>(instances.entrySet());
+                instances.clear();
+            }
+            for (Map.Entry<Object, Class> entry : entries) {
+                dereference(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void dereference(Object instance, Class type) {
+            try {
+                mvcGraph.dereference(instance, type, null);
+            } catch (ProviderMissingException e) {
+                throw new MvcGraphException(e.getMessage(), e);
             }
         }
     }
@@ -492,7 +727,7 @@ public class MvcGraph {
     static class DefaultProviderFinder extends ProviderFinderByRegistry {
         private final MvcGraph mvcGraph;
         private final ImplClassLocator defaultImplClassLocator;
-        private Map<Class, Provider> providers = new HashMap<>();
+        private final ConcurrentMap<Class<?>, Provider<?>> providers = new ConcurrentHashMap<>();
 
         private DefaultProviderFinder(MvcGraph mvcGraph) {
             this.mvcGraph = mvcGraph;
@@ -504,7 +739,7 @@ public class MvcGraph {
         public <T> Provider<T> findProvider(Class<T> type, Annotation qualifier) throws ProviderMissingException {
             Provider<T> provider = super.findProvider(type, qualifier);
             if (provider == null) {
-                provider = providers.get(type);
+                provider = (Provider<T>) providers.get(type);
                 if (provider == null) {
                     try {
                         Class<? extends T> impClass;
@@ -517,7 +752,11 @@ public class MvcGraph {
 
                         provider = new MvcProvider<>(mvcGraph.mvcBeans, type, impClass);
                         provider.setScopeCache(defaultImplClassLocator.getScopeCache());
-                        providers.put(type, provider);
+                        //Keep the provider registered first by racing threads
+                        Provider<T> existing = (Provider<T>) providers.putIfAbsent(type, provider);
+                        if (existing != null) {
+                            provider = existing;
+                        }
                     } catch (ImplClassNotFoundException e) {
                         throw new ProviderMissingException(type, qualifier, e);
                     }
@@ -525,13 +764,20 @@ public class MvcGraph {
             }
             return provider;
         }
+
+        @Override
+        protected Collection<Provider<?>> getProviders() {
+            List<Provider<?>> result = new ArrayList<>(super.getProviders());
+            result.addAll(providers.values());
+            return result;
+        }
     }
 
     private static class MvcProvider<T> extends ProviderByClassType<T> {
         private final Logger logger = LoggerFactory.getLogger(MvcGraph.class);
-        private List<MvcBean> mvcBeans;
+        private MvcBeanRegistry mvcBeans;
 
-        public MvcProvider(List<MvcBean> mvcBeans, Class<T> type, Class<? extends T> implementationClass) {
+        public MvcProvider(MvcBeanRegistry mvcBeans, Class<T> type, Class<? extends T> implementationClass) {
             super(type, implementationClass);
             this.mvcBeans = mvcBeans;
         }
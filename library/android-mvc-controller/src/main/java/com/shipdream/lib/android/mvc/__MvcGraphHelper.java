@@ -28,7 +28,7 @@ public class __MvcGraphHelper {
      * Internal use. Gets all cached items this cache still manages
      * @return The collection of cached times
      */
-    public static Collection<ScopeCache.CachedItem> getAllCachedInstances(MvcGraph mvcGraph) {
+    public static Collection<ScopeCache.CachedItem<?>> getAllCachedInstances(MvcGraph mvcGraph) {
         return mvcGraph.singletonScopeCache.getCachedItems();
     }
 
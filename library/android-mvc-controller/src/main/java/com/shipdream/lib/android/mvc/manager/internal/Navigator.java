@@ -462,6 +462,9 @@ public class Navigator {
                 }
             }
         }
+
+        //Instances released by the last fragment and not taken over by the new one can go now
+        Injector.getGraph().disposeDeferred();
     }
 
     /**
@@ -19,6 +19,8 @@ package com.shipdream.lib.android.mvc;
 import com.shipdream.lib.poke.Component;
 import com.shipdream.lib.poke.Consumer;
 import com.shipdream.lib.poke.Graph;
+import com.shipdream.lib.poke.GraphSnapshot;
+import com.shipdream.lib.poke.LruScopeCache;
 import com.shipdream.lib.poke.Provider.OnFreedListener;
 import com.shipdream.lib.poke.Provides;
 import com.shipdream.lib.poke.ScopeCache;
@@ -37,6 +39,8 @@ import java.lang.annotation.Retention;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Qualifier;
@@ -385,7 +389,7 @@ public class TestMvcGraph {
         when(mvcBeanMock.getModel()).thenReturn(mockState);
         when(mvcBeanMock.modelType()).thenReturn(Object.class);
 
-        List<MvcBean> mvcBeans = new ArrayList();
+        MvcBeanRegistry mvcBeans = new MvcBeanRegistry();
         mvcBeans.add(mvcBeanMock);
         mvcGraph.mvcBeans = mvcBeans;
 
@@ -411,6 +415,36 @@ public class TestMvcGraph {
         verify(mvcBeanMock).restoreModel(eq(stateMock));
     }
 
+    @Test
+    public void should_save_and_restore_models_of_given_type_only() {
+        MvcBean stringBean = mock(MvcBean.class);
+        when(stringBean.getModel()).thenReturn("model");
+        when(stringBean.modelType()).thenReturn(String.class);
+        MvcBean integerBean = mock(MvcBean.class);
+        when(integerBean.modelType()).thenReturn(Integer.class);
+
+        MvcBeanRegistry mvcBeans = new MvcBeanRegistry();
+        mvcBeans.add(stringBean);
+        mvcBeans.add(integerBean);
+        mvcGraph.mvcBeans = mvcBeans;
+        ModelKeeper modelKeeperMock = mock(ModelKeeper.class);
+        when(modelKeeperMock.retrieveModel(String.class)).thenReturn("restored");
+
+        mvcGraph.saveModels(modelKeeperMock, String.class);
+        mvcGraph.restoreModels(modelKeeperMock, String.class);
+
+        verify(modelKeeperMock).saveModel(eq("model"), eq(String.class));
+        verify(stringBean).restoreModel(eq("restored"));
+        verify(integerBean, times(0)).getModel();
+        verify(integerBean, times(0)).restoreModel(any());
+
+        //Disposed beans are dropped from the index of their model type
+        mvcBeans.remove(stringBean);
+        Assert.assertFalse(mvcBeans.contains(stringBean));
+        Assert.assertTrue(mvcBeans.beansOf(String.class).isEmpty());
+        Assert.assertEquals(1, mvcBeans.size());
+    }
+
     interface UnimplementedInterface{}
 
     @Test(expected = MvcGraphException.class)
@@ -446,4 +480,203 @@ public class TestMvcGraph {
             }
         });
     }
+
+    @Test
+    public void should_inject_and_release_all_targets_in_one_pass() {
+        mvcGraph.register(new DeviceComponent());
+        final OnFreedListener onFreedListener = mock(OnFreedListener.class);
+        mvcGraph.registerProviderFreedListener(onFreedListener);
+
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            devices.add(new Device());
+        }
+
+        mvcGraph.injectAll(devices);
+
+        for (Device device : devices) {
+            Assert.assertTrue(device.android instanceof Android);
+            Assert.assertTrue(device.os instanceof iOS);
+            Assert.assertTrue(device.android == devices.get(0).android);
+            Assert.assertTrue(device.os == devices.get(0).os);
+        }
+
+        mvcGraph.releaseAll(devices.subList(0, 2));
+        verify(onFreedListener, times(0)).onFreed(any(com.shipdream.lib.poke.Provider.class));
+
+        mvcGraph.releaseAll(devices.subList(2, 3));
+        verify(onFreedListener, times(2)).onFreed(any(com.shipdream.lib.poke.Provider.class));
+    }
+
+    @Test(expected = MvcGraphException.class)
+    public void should_raise_mvc_graph_exception_when_inject_all_on_poke_exception() {
+        class View {
+            @Inject
+            UnimplementedInterface unimplementedInterface;
+        }
+        List<View> views = new ArrayList<>();
+        views.add(new View());
+        mvcGraph.injectAll(views);
+    }
+
+    @Test(expected = MvcGraphException.class)
+    public void should_raise_mvc_graph_exception_when_release_all_on_poke_exception() {
+        class View {
+            @Inject
+            UnimplementedInterface unimplementedInterface;
+        }
+        View view = new View();
+        view.unimplementedInterface = new UnimplementedInterface() {
+        };
+        List<View> views = new ArrayList<>();
+        views.add(view);
+        mvcGraph.releaseAll(views);
+    }
+
+    static class Storage {
+        static final AtomicInteger creations = new AtomicInteger();
+
+        Storage() {
+            creations.incrementAndGet();
+        }
+    }
+
+    static class Preferences {
+        @Inject
+        Storage storage;
+    }
+
+    static class NoteRepository {
+        @Inject
+        Storage storage;
+    }
+
+    static class Screen {
+        @Inject
+        Preferences preferences;
+    }
+
+    @Test
+    public void prewarm_should_build_singletons_in_parallel_and_share_dependencies() throws Exception {
+        Storage.creations.set(0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            MvcGraph.Prewarming prewarming = mvcGraph.prewarm(pool, Preferences.class,
+                    NoteRepository.class, Preferences.class);
+            prewarming.await();
+            Assert.assertTrue(prewarming.isDone());
+            Assert.assertEquals(1, Storage.creations.get());
+
+            Preferences preferences = mvcGraph.reference(Preferences.class, null);
+            NoteRepository noteRepository = mvcGraph.reference(NoteRepository.class, null);
+            Assert.assertSame(preferences.storage, noteRepository.storage);
+
+            Screen screen = new Screen();
+            mvcGraph.inject(screen);
+            Assert.assertSame(preferences, screen.preferences);
+            mvcGraph.dereference(preferences, Preferences.class, null);
+            mvcGraph.dereference(noteRepository, NoteRepository.class, null);
+
+            //The screen keeps preferences alive after pre-warmed references are dropped
+            prewarming.release();
+            Screen screen2 = new Screen();
+            mvcGraph.inject(screen2);
+            Assert.assertSame(preferences, screen2.preferences);
+            Assert.assertEquals(1, Storage.creations.get());
+
+            mvcGraph.release(screen);
+            mvcGraph.release(screen2);
+            mvcGraph.inject(screen);
+            Assert.assertNotSame(preferences, screen.preferences);
+            Assert.assertEquals(2, Storage.creations.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = MvcGraphException.class)
+    public void prewarm_should_raise_mvc_graph_exception_on_poke_exception() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            mvcGraph.prewarm(pool, UnimplementedInterface.class).await();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static class CountingBean extends MvcBean<String> {
+        int constructions;
+        int disposals;
+
+        @Override
+        public Class<String> modelType() {
+            return String.class;
+        }
+
+        @Override
+        public void onConstruct() {
+            super.onConstruct();
+            constructions++;
+        }
+
+        @Override
+        public void onDisposed() {
+            super.onDisposed();
+            disposals++;
+        }
+    }
+
+    static class CountingScreen {
+        @Inject
+        CountingBean bean;
+    }
+
+    @Test
+    public void retaining_singleton_cache_should_keep_bean_between_navigations() throws Exception {
+        mvcGraph = new MvcGraph(new MvcGraph.BaseDependencies() {
+            @Override
+            protected ExecutorService createExecutorService() {
+                return executorService;
+            }
+        }, new LruScopeCache(1));
+
+        CountingScreen screen = new CountingScreen();
+        mvcGraph.inject(screen);
+        CountingBean bean = screen.bean;
+        mvcGraph.release(screen);
+
+        mvcGraph.inject(screen);
+        Assert.assertSame(bean, screen.bean);
+        Assert.assertEquals(1, bean.constructions);
+        Assert.assertEquals(0, bean.disposals);
+        mvcGraph.release(screen);
+
+        //Another idle instance pushes the bean out of the cache
+        Storage storage = mvcGraph.reference(Storage.class, null);
+        mvcGraph.dereference(storage, Storage.class, null);
+        Assert.assertEquals(1, bean.disposals);
+        Assert.assertFalse(mvcGraph.mvcBeans.contains(bean));
+    }
+
+    @Test
+    public void snapshot_should_include_providers_located_for_unregistered_types() throws Exception {
+        Screen screen = new Screen();
+        mvcGraph.inject(screen);
+        //Registering bindings clears the providers resolved so far
+        mvcGraph.register(new DeviceComponent());
+
+        GraphSnapshot.ProviderNode storage = null;
+        for (GraphSnapshot.ProviderNode node : mvcGraph.snapshot().getProviders()) {
+            if (node.getType() == Storage.class) {
+                storage = node;
+            }
+        }
+        Assert.assertNotNull(storage);
+        Assert.assertEquals(1, storage.getReferenceCount());
+        Assert.assertNotNull(storage.getCachedInstance());
+        Assert.assertTrue(storage.getOwners().get(0).getInstance()
+                .startsWith(Preferences.class.getName() + "@"));
+
+        mvcGraph.release(screen);
+    }
 }
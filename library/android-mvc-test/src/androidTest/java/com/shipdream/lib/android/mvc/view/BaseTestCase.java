@@ -35,6 +35,7 @@ import com.shipdream.lib.android.mvc.view.help.LifeCycleMonitorA;
 import com.shipdream.lib.android.mvc.view.help.LifeCycleMonitorB;
 import com.shipdream.lib.android.mvc.view.help.LifeCycleMonitorC;
 import com.shipdream.lib.android.mvc.view.help.LifeCycleMonitorD;
+import com.shipdream.lib.poke.ProviderKey;
 import com.shipdream.lib.poke.ScopeCache;
 
 import org.junit.After;
@@ -115,7 +116,7 @@ public class BaseTestCase <T extends MvcActivity> extends ActivityInstrumentatio
     }
 
     class testCache extends ScopeCache {
-        Map<String, CachedItem> getCacheMap() {
+        Map<ProviderKey, CachedItem<?>> getCacheMap() {
             return cache;
         }
     }
@@ -94,8 +94,9 @@ public abstract class MvcActivity extends AppCompatActivity {
         eventRegister.onDestroy();
 
         if (toPrintAppExitMessage && logger.isTraceEnabled()) {
-            logger.trace("App Exits(UI): {} injected beans are still cached.",
-                    __MvcGraphHelper.getAllCachedInstances(Injector.getGraph()).size());
+            logger.trace("App Exits(UI): {} injected beans are still cached. Graph: {}",
+                    __MvcGraphHelper.getAllCachedInstances(Injector.getGraph()).size(),
+                    Injector.getGraph().snapshot().toJson());
             toPrintAppExitMessage = false;
         }
     }
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor generating a <code>&lt;Target&gt;_PokeInjector</code> for every class
+ * declaring fields annotated by {@link javax.inject.Inject}, so poke can inject and release those
+ * fields without reflection. Extra inject annotations can be processed by passing their fully
+ * qualified names, separated by commas, with the option {@value #OPTION_INJECT_ANNOTATIONS}.
+ *
+ * <p>For every component declaring methods annotated by {@link com.shipdream.lib.poke.Provides}
+ * a <code>&lt;Component&gt;_PokeProvides</code> is generated as well, so poke can call the
+ * methods without reflection.</p>
+ *
+ * <p>Classes declaring private injectable fields or provide methods or nested in a private class
+ * can't be accessed by generated code. They are skipped and poke keeps handling them by
+ * reflection.</p>
+ *
+ * <p>Top level classes named <code>pkg.internal.ContractImpl</code> implementing an interface
+ * <code>pkg.Contract</code> are indexed by a resource {@value #IMPL_INDEX_DIRECTORY}pkg.Contract
+ * holding the name of the class, which {@link com.shipdream.lib.poke.ImplClassLocatorByPattern}
+ * reads instead of probing the naming pattern by {@link Class#forName(String)}. Resources are
+ * named by contracts so the indexes of different modules don't clash when they are packaged into
+ * the same jar or apk. Only the classes compiled together are indexed, others are still located by
+ * the pattern.</p>
+ *
+ * <p>To find implementation classes the processor supports all annotations, so it runs on every
+ * compilation, including classes without any annotation. It doesn't claim any annotation though,
+ * so other processors such as Dagger's still see the same elements.</p>
+ */
+@SupportedOptions(PokeProcessor.OPTION_INJECT_ANNOTATIONS)
+public class PokeProcessor extends AbstractProcessor {
+    /**
+     * Option to list extra annotations marking injectable fields
+     */
+    public static final String OPTION_INJECT_ANNOTATIONS = "poke.injectAnnotations";
+    static final String DEFAULT_INJECT_ANNOTATION = "javax.inject.Inject";
+    static final String INJECTOR_SUFFIX = "_PokeInjector";
+    private static final String INJECTOR_BASE_CLASS = "com.shipdream.lib.poke.PokeInjector";
+    static final String PROVIDES_ANNOTATION = "com.shipdream.lib.poke.Provides";
+    static final String INVOKER_SUFFIX = "_PokeProvides";
+    private static final String INVOKER_BASE_CLASS = "com.shipdream.lib.poke.PokeProvidesInvoker";
+    static final String IMPL_INDEX_DIRECTORY = "META-INF/poke/impl-classes/";
+    private static final String INTERNAL_PACKAGE_SUFFIX = ".internal";
+    private static final String IMPL_SUFFIX = "Impl";
+
+    private final Set<String> generatedInjectors = new HashSet<>();
+    private final Map<String, String> implClasses = new TreeMap<>();
+
+    /**
+     * All annotations are supported since implementation classes are indexed whether annotated or
+     * not
+     */
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    /**
+     * @return Names of the annotations marking injectable fields
+     */
+    private Set<String> getInjectAnnotations() {
+        Set<String> types = new LinkedHashSet<>();
+        types.add(DEFAULT_INJECT_ANNOTATION);
+        String extra = processingEnv.getOptions().get(OPTION_INJECT_ANNOTATIONS);
+        if (extra != null) {
+            for (String name : extra.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    types.add(name.trim());
+                }
+            }
+        }
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<String> injectAnnotations = getInjectAnnotations();
+        for (TypeElement annotation : annotations) {
+            if (annotation.getQualifiedName().contentEquals(PROVIDES_ANNOTATION)) {
+                processProvides(roundEnv, annotation);
+                continue;
+            }
+            if (!injectAnnotations.contains(annotation.getQualifiedName().toString())) {
+                continue;
+            }
+
+            Map<TypeElement, List<VariableElement>> fieldsByClass = new LinkedHashMap<>();
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.FIELD) {
+                    TypeElement clazz = (TypeElement) element.getEnclosingElement();
+                    List<VariableElement> fields = fieldsByClass.get(clazz);
+                    if (fields == null) {
+                        fields = new ArrayList<>();
+                        fieldsByClass.put(clazz, fields);
+                    }
+                    fields.add((VariableElement) element);
+                }
+            }
+
+            for (Map.Entry<TypeElement, List<VariableElement>> entry : fieldsByClass.entrySet()) {
+                TypeElement clazz = entry.getKey();
+                if (isAccessible(clazz, entry.getValue())) {
+                    generateInjector(clazz, annotation, entry.getValue());
+                }
+            }
+        }
+
+        indexImplClasses(roundEnv);
+        if (roundEnv.processingOver() && !implClasses.isEmpty()) {
+            writeImplIndex();
+        }
+        return false;
+    }
+
+    /**
+     * Index the root classes of the round following the naming pattern of implementation classes
+     */
+    private void indexImplClasses(RoundEnvironment roundEnv) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        for (Element element : roundEnv.getRootElements()) {
+            if (element.getKind() != ElementKind.CLASS
+                    || element.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            TypeElement clazz = (TypeElement) element;
+            String simpleName = clazz.getSimpleName().toString();
+            String packageName = elements.getPackageOf(clazz).getQualifiedName().toString();
+            if (!simpleName.endsWith(IMPL_SUFFIX) || !packageName.endsWith(INTERNAL_PACKAGE_SUFFIX)) {
+                continue;
+            }
+
+            String contractName = packageName.substring(0,
+                    packageName.length() - INTERNAL_PACKAGE_SUFFIX.length()) + "."
+                    + simpleName.substring(0, simpleName.length() - IMPL_SUFFIX.length());
+            TypeElement contract = elements.getTypeElement(contractName);
+            if (contract != null && contract.getKind() == ElementKind.INTERFACE
+                    && types.isAssignable(types.erasure(clazz.asType()),
+                    types.erasure(contract.asType()))) {
+                implClasses.put(elements.getBinaryName(contract).toString(),
+                        elements.getBinaryName(clazz).toString());
+            }
+        }
+    }
+
+    private void writeImplIndex() {
+        for (Map.Entry<String, String> entry : implClasses.entrySet()) {
+            String resource = IMPL_INDEX_DIRECTORY + entry.getKey();
+            try {
+                FileObject file = processingEnv.getFiler().createResource(
+                        StandardLocation.CLASS_OUTPUT, "", resource);
+                Writer writer = file.openWriter();
+                try {
+                    writer.write(entry.getValue());
+                    writer.write('\n');
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Failed to write " + resource + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Whether generated code in the same package can read and assign the given fields of the class
+     */
+    private boolean isAccessible(TypeElement clazz, List<VariableElement> fields) {
+        for (VariableElement field : fields) {
+            if (field.getModifiers().contains(Modifier.PRIVATE)
+                    || field.getModifiers().contains(Modifier.STATIC)) {
+                note(clazz, "%s.%s is private or static, %s will be injected by reflection",
+                        clazz.getSimpleName(), field.getSimpleName(), clazz.getQualifiedName());
+                return false;
+            }
+            if (!isTypeAccessible(field.asType(), clazz)) {
+                note(clazz, "Type of %s.%s is not accessible from its package, %s will be injected " +
+                        "by reflection", clazz.getSimpleName(), field.getSimpleName(),
+                        clazz.getQualifiedName());
+                return false;
+            }
+        }
+
+        return isAccessible(clazz);
+    }
+
+    /**
+     * Whether generated code in the package of the class can refer to the erasure of the type,
+     * i.e. the type and all types enclosing it are either public or not private and in the same
+     * package
+     */
+    private boolean isTypeAccessible(TypeMirror type, TypeElement clazz) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        while (erased.getKind() == TypeKind.ARRAY) {
+            erased = ((ArrayType) erased).getComponentType();
+        }
+        if (erased.getKind() != TypeKind.DECLARED) {
+            return true;
+        }
+
+        Elements elements = processingEnv.getElementUtils();
+        PackageElement packageElement = elements.getPackageOf(clazz);
+        Element element = ((DeclaredType) erased).asElement();
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            Set<Modifier> modifiers = element.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC)
+                    && !elements.getPackageOf(element).equals(packageElement)) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * Whether generated code in the same package can refer to the class
+     */
+    private boolean isAccessible(TypeElement clazz) {
+        Element element = clazz;
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            TypeElement type = (TypeElement) element;
+            if (type.getNestingKind() == NestingKind.LOCAL
+                    || type.getNestingKind() == NestingKind.ANONYMOUS
+                    || type.getModifiers().contains(Modifier.PRIVATE)) {
+                note(clazz, "%s is not accessible from its package, it will be injected by reflection",
+                        clazz.getQualifiedName());
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void processProvides(RoundEnvironment roundEnv, TypeElement annotation) {
+        Map<TypeElement, List<ExecutableElement>> methodsByClass = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() == ElementKind.METHOD) {
+                TypeElement clazz = (TypeElement) element.getEnclosingElement();
+                List<ExecutableElement> methods = methodsByClass.get(clazz);
+                if (methods == null) {
+                    methods = new ArrayList<>();
+                    methodsByClass.put(clazz, methods);
+                }
+                methods.add((ExecutableElement) element);
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : methodsByClass.entrySet()) {
+            TypeElement clazz = entry.getKey();
+            if (areInvocable(clazz, entry.getValue()) && isAccessible(clazz)) {
+                generateInvoker(clazz, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Whether generated code in the same package can call the given provide methods of the class
+     */
+    private boolean areInvocable(TypeElement clazz, List<ExecutableElement> methods) {
+        for (ExecutableElement method : methods) {
+            if (method.getModifiers().contains(Modifier.PRIVATE)
+                    || !method.getParameters().isEmpty()
+                    || method.getReturnType().getKind() == TypeKind.VOID) {
+                note(clazz, "%s.%s is private, takes parameters or returns void, provide methods " +
+                        "of %s will be called by reflection", clazz.getSimpleName(),
+                        method.getSimpleName(), clazz.getQualifiedName());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generateInvoker(TypeElement clazz, List<ExecutableElement> methods) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(clazz)
+                .getQualifiedName().toString();
+        String invokerName = processingEnv.getElementUtils().getBinaryName(clazz).toString()
+                + INVOKER_SUFFIX;
+        String invokerSimpleName = packageName.isEmpty() ? invokerName
+                : invokerName.substring(packageName.length() + 1);
+        String componentType = processingEnv.getTypeUtils().erasure(clazz.asType()).toString();
+
+        StringBuilder src = new StringBuilder();
+        src.append("// Generated by poke-compiler. Do not modify!\n");
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("public final class ").append(invokerSimpleName).append(" extends ")
+                .append(INVOKER_BASE_CLASS).append("<").append(componentType).append("> {\n");
+
+        src.append("    private static final String[] METHOD_NAMES = {");
+        for (int i = 0; i < methods.size(); i++) {
+            src.append(i == 0 ? "\"" : ", \"").append(methods.get(i).getSimpleName()).append("\"");
+        }
+        src.append("};\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public String[] methodNames() {\n");
+        src.append("        return METHOD_NAMES.clone();\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public Object provide(").append(componentType).append(" component, int slot) {\n");
+        src.append("        switch (slot) {\n");
+        for (int i = 0; i < methods.size(); i++) {
+            src.append("            case ").append(i).append(":\n");
+            src.append("                return component.").append(methods.get(i).getSimpleName())
+                    .append("();\n");
+        }
+        src.append("            default:\n");
+        src.append("                throw new IllegalArgumentException(\"Unknown slot \" + slot);\n");
+        src.append("        }\n");
+        src.append("    }\n");
+        src.append("}\n");
+
+        writeSource(invokerName, clazz, src.toString());
+    }
+
+    private void generateInjector(TypeElement clazz, TypeElement annotation,
+                                  List<VariableElement> fields) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(clazz)
+                .getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(clazz).toString();
+        String injectorName = binaryName + INJECTOR_SUFFIX;
+        if (!generatedInjectors.add(injectorName)) {
+            note(clazz, "%s has fields marked by different inject annotations, only fields " +
+                    "marked by the first one processed skip reflection", clazz.getQualifiedName());
+            return;
+        }
+        String injectorSimpleName = packageName.isEmpty() ? injectorName
+                : injectorName.substring(packageName.length() + 1);
+        String targetType = processingEnv.getTypeUtils().erasure(clazz.asType()).toString();
+
+        StringBuilder src = new StringBuilder();
+        src.append("// Generated by poke-compiler. Do not modify!\n");
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        src.append("public final class ").append(injectorSimpleName).append(" extends ")
+                .append(INJECTOR_BASE_CLASS).append("<").append(targetType).append("> {\n");
+
+        src.append("    private static final String[] FIELD_NAMES = {");
+        for (int i = 0; i < fields.size(); i++) {
+            src.append(i == 0 ? "\"" : ", \"").append(fields.get(i).getSimpleName()).append("\"");
+        }
+        src.append("};\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public Class<? extends java.lang.annotation.Annotation> injectAnnotation() {\n");
+        src.append("        return ").append(annotation.getQualifiedName()).append(".class;\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public String[] fieldNames() {\n");
+        src.append("        return FIELD_NAMES.clone();\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public void set(").append(targetType).append(" target, int slot, Object value) {\n");
+        src.append("        switch (slot) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            VariableElement field = fields.get(i);
+            String fieldType = processingEnv.getTypeUtils().erasure(field.asType()).toString();
+            src.append("            case ").append(i).append(":\n");
+            src.append("                target.").append(field.getSimpleName()).append(" = (")
+                    .append(fieldType).append(") value;\n");
+            src.append("                break;\n");
+        }
+        src.append("            default:\n");
+        src.append("                throw new IllegalArgumentException(\"Unknown slot \" + slot);\n");
+        src.append("        }\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public Object get(").append(targetType).append(" target, int slot) {\n");
+        src.append("        switch (slot) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            src.append("            case ").append(i).append(":\n");
+            src.append("                return target.").append(fields.get(i).getSimpleName()).append(";\n");
+        }
+        src.append("            default:\n");
+        src.append("                throw new IllegalArgumentException(\"Unknown slot \" + slot);\n");
+        src.append("        }\n");
+        src.append("    }\n");
+        src.append("}\n");
+
+        writeSource(injectorName, clazz, src.toString());
+    }
+
+    private void writeSource(String className, TypeElement origin, String src) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(className, origin);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(src);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to generate " + className + ": " + e.getMessage(), origin);
+        }
+    }
+
+    private void note(Element element, String format, Object... args) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                String.format(format, args), element);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Exposes the injection plans of a graph to the tests of generated code
+ */
+public class InjectionPlans {
+    /**
+     * Get the generated injector the graph accesses the field through
+     * @return Null if the field is accessed by reflection
+     */
+    public static PokeInjector injectorOf(Graph graph, Class<?> clazz,
+                                          Class<? extends Annotation> injectAnnotation,
+                                          String fieldName) {
+        for (InjectionPlan.Site site : graph.getInjectionPlan(clazz, injectAnnotation).sites) {
+            if (site.field.getName().equals(fieldName)) {
+                return site.injector;
+            }
+        }
+        throw new IllegalArgumentException(String.format("%s has no field %s to inject",
+                clazz.getName(), fieldName));
+    }
+}
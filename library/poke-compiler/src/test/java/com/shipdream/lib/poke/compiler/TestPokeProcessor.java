@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke.compiler;
+
+import com.shipdream.lib.poke.Component;
+import com.shipdream.lib.poke.ImplClassLocatorByPattern;
+import com.shipdream.lib.poke.InjectionPlans;
+import com.shipdream.lib.poke.PokeInjector;
+import com.shipdream.lib.poke.PokeProvidesInvoker;
+import com.shipdream.lib.poke.ScopeCache;
+import com.shipdream.lib.poke.SimpleGraph;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class TestPokeProcessor {
+    private File workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("poke-compiler", "");
+        Assert.assertTrue(workDir.delete());
+        Assert.assertTrue(workDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        delete(workDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void should_generate_injector_for_accessible_fields() throws Exception {
+        ClassLoader classLoader = compile(
+                "package sample;\n" +
+                "public interface Engine {}",
+
+                "package sample;\n" +
+                "public class V8 implements Engine {}",
+
+                "package sample;\n" +
+                "public class Car {\n" +
+                "    @javax.inject.Inject Engine engine;\n" +
+                "    public static class Door {\n" +
+                "        @javax.inject.Inject protected Engine engine;\n" +
+                "    }\n" +
+                "}");
+
+        Class<?> injectorClass = classLoader.loadClass("sample.Car" + PokeInjector.CLASS_NAME_SUFFIX);
+        PokeInjector injector = (PokeInjector) injectorClass.newInstance();
+        Assert.assertEquals(Inject.class, injector.injectAnnotation());
+        Assert.assertEquals(Collections.singletonList("engine"), Arrays.asList(injector.fieldNames()));
+
+        //Nested classes get their injectors named by their binary names
+        classLoader.loadClass("sample.Car$Door" + PokeInjector.CLASS_NAME_SUFFIX);
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void should_not_generate_injector_for_private_fields() throws Exception {
+        ClassLoader classLoader = compile(
+                "package sample;\n" +
+                "public class Garage {\n" +
+                "    @javax.inject.Inject private Object tool;\n" +
+                "}");
+
+        classLoader.loadClass("sample.Garage" + PokeInjector.CLASS_NAME_SUFFIX);
+    }
+
+    @Test
+    public void should_not_generate_injector_for_fields_of_inaccessible_types() throws Exception {
+        ClassLoader classLoader = compile(
+                "package other;\n" +
+                "public class Base {\n" +
+                "    protected static class Part {}\n" +
+                "}",
+
+                "package sample;\n" +
+                "public class Outer {\n" +
+                "    private static class Hidden {}\n" +
+                "    public static class User {\n" +
+                "        @javax.inject.Inject Hidden hidden;\n" +
+                "    }\n" +
+                "    public static class Heir extends other.Base {\n" +
+                "        @javax.inject.Inject Part part;\n" +
+                "    }\n" +
+                "}");
+
+        //Both compile since the injectors fall back to reflection
+        assertNoInjector(classLoader, "sample.Outer$User");
+        assertNoInjector(classLoader, "sample.Outer$Heir");
+    }
+
+    private static void assertNoInjector(ClassLoader classLoader, String className) {
+        try {
+            classLoader.loadClass(className + PokeInjector.CLASS_NAME_SUFFIX);
+            Assert.fail("Injector of " + className + " should not be generated");
+        } catch (ClassNotFoundException e) {
+            //Expected
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void graph_should_inject_and_release_by_generated_injector() throws Exception {
+        ClassLoader classLoader = compile(
+                "package sample;\n" +
+                "public interface Engine {}",
+
+                "package sample;\n" +
+                "public class V8 implements Engine {}",
+
+                "package sample;\n" +
+                "public class Car {\n" +
+                "    @javax.inject.Inject Engine engine;\n" +
+                "    public Engine getEngine() {\n" +
+                "        return engine;\n" +
+                "    }\n" +
+                "}");
+
+        Class engineClass = classLoader.loadClass("sample.Engine");
+        Class carClass = classLoader.loadClass("sample.Car");
+
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(engineClass, classLoader.loadClass("sample.V8"), new ScopeCache());
+
+        Object car = carClass.newInstance();
+        graph.inject(car, Inject.class);
+
+        //The field is accessed by the generated injector rather than reflection
+        PokeInjector injector = InjectionPlans.injectorOf(graph, carClass, Inject.class, "engine");
+        Assert.assertNotNull(injector);
+        Assert.assertEquals("sample.Car" + PokeInjector.CLASS_NAME_SUFFIX,
+                injector.getClass().getName());
+
+        Object engine = carClass.getMethod("getEngine").invoke(car);
+        Assert.assertNotNull(engine);
+
+        graph.release(car, Inject.class);
+
+        Object car2 = carClass.newInstance();
+        graph.inject(car2, Inject.class);
+        //Previous cached engine is freed so a new one is created
+        Assert.assertNotSame(engine, carClass.getMethod("getEngine").invoke(car2));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void graph_should_provide_by_generated_invoker() throws Exception {
+        ClassLoader classLoader = compile(
+                "package sample;\n" +
+                "public interface Engine {}",
+
+                "package sample;\n" +
+                "public class V8 implements Engine {}",
+
+                "package sample;\n" +
+                "public class Car {\n" +
+                "    @javax.inject.Inject Engine engine;\n" +
+                "    public Engine getEngine() {\n" +
+                "        return engine;\n" +
+                "    }\n" +
+                "}",
+
+                "package sample;\n" +
+                "public class EngineComponent extends com.shipdream.lib.poke.Component {\n" +
+                "    @com.shipdream.lib.poke.Provides\n" +
+                "    public Engine provideEngine() {\n" +
+                "        return new V8();\n" +
+                "    }\n" +
+                "}");
+
+        Class<?> invokerClass = classLoader.loadClass("sample.EngineComponent"
+                + PokeProvidesInvoker.CLASS_NAME_SUFFIX);
+        PokeProvidesInvoker invoker = (PokeProvidesInvoker) invokerClass.newInstance();
+        Assert.assertEquals(Collections.singletonList("provideEngine"),
+                Arrays.asList(invoker.methodNames()));
+
+        Class carClass = classLoader.loadClass("sample.Car");
+        SimpleGraph graph = new SimpleGraph();
+        graph.register((Component) classLoader.loadClass("sample.EngineComponent").newInstance());
+
+        Object car = carClass.newInstance();
+        graph.inject(car, Inject.class);
+
+        Object engine = carClass.getMethod("getEngine").invoke(car);
+        Assert.assertEquals("sample.V8", engine.getClass().getName());
+    }
+
+    @Test
+    public void locator_should_find_impl_classes_by_generated_index() throws Exception {
+        ClassLoader classLoader = compile(
+                "package sample;\n" +
+                "public interface Printer {}",
+
+                "package sample.internal;\n" +
+                "public class PrinterImpl implements sample.Printer {}");
+
+        Assert.assertNotNull(classLoader.getResource(PokeProcessor.IMPL_INDEX_DIRECTORY
+                + "sample.Printer"));
+
+        //The implementation is only visible to the class loader of the index so the naming
+        //pattern alone can't find it
+        ImplClassLocatorByPattern locator = new ImplClassLocatorByPattern(null, classLoader);
+        Class<?> impl = locator.locateImpl(classLoader.loadClass("sample.Printer"));
+        Assert.assertEquals("sample.internal.PrinterImpl", impl.getName());
+        Assert.assertSame(classLoader, impl.getClassLoader());
+    }
+
+    private ClassLoader compile(String... sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        File srcDir = new File(workDir, "src");
+        File outDir = new File(workDir, "out");
+        Assert.assertTrue(outDir.mkdirs());
+
+        List<String> args = new ArrayList<>();
+        args.add("-d");
+        args.add(outDir.getAbsolutePath());
+        args.add("-s");
+        args.add(outDir.getAbsolutePath());
+        args.add("-classpath");
+        args.add(System.getProperty("java.class.path"));
+        args.add("-processor");
+        args.add(PokeProcessor.class.getName());
+        for (int i = 0; i < sources.length; i++) {
+            String source = sources[i];
+            String pkg = source.substring("package ".length(), source.indexOf(';'));
+            String name = source.replaceAll("(?s).*?public (class|interface) (\\w+).*", "$2");
+            File file = new File(srcDir, pkg.replace('.', '/') + "/" + name + ".java");
+            Assert.assertTrue(file.getParentFile().exists() || file.getParentFile().mkdirs());
+            FileWriter writer = new FileWriter(file);
+            writer.write(source);
+            writer.close();
+            args.add(file.getAbsolutePath());
+        }
+
+        int result = compiler.run(null, null, null, args.toArray(new String[args.size()]));
+        Assert.assertEquals(0, result);
+
+        return new URLClassLoader(new URL[]{outDir.toURI().toURL()}, getClass().getClassLoader());
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.CircularDependenciesException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dependency table of a frozen graph built by {@link SimpleGraph#compile(Class)}. Every class
+ * known to be created by a registered provider gets an {@link Entry} holding the providers of its
+ * injectable fields, so injection reads them by the index of the field instead of looking them
+ * up. Entries not involved in any circular dependency are marked acyclic and their sub graphs are
+ * injected without circular dependency tracking.
+ */
+final class CompiledGraph {
+    /**
+     * Compiled injection plan of a class
+     */
+    static final class Entry {
+        final Class<?> type;
+        final InjectionPlan plan;
+        /**
+         * Providers aligned with {@link InjectionPlan#sites}. An element is null when there is no
+         * provider for the site which is only allowed for entries of root targets
+         */
+        final Provider<?>[] providers;
+        /**
+         * Entries of the classes the providers are known to create, aligned with
+         * {@link InjectionPlan#sites}. Null when the provider doesn't belong to the graph or the
+         * site is lazy, since lazy instances are not injected along with their owners
+         */
+        final Entry[] children;
+        boolean acyclic = true;
+        /**
+         * Providers of the arguments of the {@link javax.inject.Inject} constructor still to be
+         * compiled. Only used while compiling.
+         */
+        private List<Provider<?>> parameterProviders;
+
+        private Entry(Class<?> type, InjectionPlan plan) {
+            this.type = type;
+            this.plan = plan;
+            this.providers = new Provider<?>[plan.sites.length];
+            this.children = new Entry[plan.sites.length];
+        }
+    }
+
+    final Class<? extends Annotation> injectAnnotation;
+    private final Graph graph;
+    private final Map<Class<?>, Entry> entries;
+    private final Map<Class<?>, Entry> rootEntries = new ConcurrentHashMap<>();
+
+    private CompiledGraph(Graph graph, Class<? extends Annotation> injectAnnotation,
+                          Map<Class<?>, Entry> entries) {
+        this.graph = graph;
+        this.injectAnnotation = injectAnnotation;
+        this.entries = entries;
+    }
+
+    /**
+     * Walk the classes created by the given providers and their dependencies recursively.
+     * @throws ProviderMissingException Thrown when a dependency of a known class has no provider
+     * @throws CircularDependenciesException Thrown when classes depend on each other circularly
+     * through unscoped providers only, which would fail every injection reaching them
+     */
+    static CompiledGraph compile(Graph graph, Collection<Provider<?>> providers,
+                                 Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException, CircularDependenciesException {
+        Map<Class<?>, Entry> entries = new HashMap<>();
+        Deque<Entry> pending = new ArrayDeque<>();
+        for (Provider<?> provider : providers) {
+            obtainEntry(graph, entries, pending, provider, injectAnnotation);
+        }
+        //Dependencies are walked by the work queue rather than recursively, so a long chain of
+        //dependencies can't overflow the stack
+        while (!pending.isEmpty()) {
+            Entry entry = pending.poll();
+            if (entry.parameterProviders != null) {
+                for (Provider<?> provider : entry.parameterProviders) {
+                    obtainEntry(graph, entries, pending, provider, injectAnnotation);
+                }
+                entry.parameterProviders = null;
+            }
+            InjectionPlan.Site[] sites = entry.plan.sites;
+            for (int i = 0; i < sites.length; i++) {
+                Provider<?> provider = graph.getProvider(sites[i].key);
+                entry.providers[i] = provider;
+                //Lazy instances are injected by themselves once got, so still compile their entries
+                Entry child = obtainEntry(graph, entries, pending, provider, injectAnnotation);
+                entry.children[i] = sites[i].lazy ? null : child;
+            }
+        }
+
+        new CycleFinder(entries.values()).markCycles();
+        return new CompiledGraph(graph, injectAnnotation, entries);
+    }
+
+    private static Entry obtainEntry(Graph graph, Map<Class<?>, Entry> entries, Deque<Entry> pending,
+                                     Provider<?> provider, Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException {
+        Class<?> type = provider.implementationType();
+        Entry entry = entries.get(type);
+        if (entry == null) {
+            entry = new Entry(type, graph.getInjectionPlan(type, injectAnnotation));
+            entries.put(type, entry);
+            pending.add(entry);
+            if (provider instanceof ProviderByClassType) {
+                //Arguments of @Inject constructors are checked and compiled as well
+                entry.parameterProviders = new ArrayList<>();
+                for (ProviderKey key : ((ProviderByClassType<?>) provider).parameterKeys) {
+                    entry.parameterProviders.add(graph.getProvider(key));
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Get the entry of a class known by the compiled graph
+     * @return The entry or null if the class is not created by any provider of the graph
+     */
+    Entry entry(Class<?> type) {
+        return entries.get(type);
+    }
+
+    /**
+     * Get the entry of a class whose instances are injected or released as root targets, e.g. a
+     * view holding controllers. Entries of classes unknown at compile time are built on first use.
+     */
+    Entry rootEntry(Class<?> type) {
+        Entry entry = entries.get(type);
+        if (entry == null) {
+            entry = rootEntries.get(type);
+            if (entry == null) {
+                entry = new Entry(type, graph.getInjectionPlan(type, injectAnnotation));
+                InjectionPlan.Site[] sites = entry.plan.sites;
+                for (int i = 0; i < sites.length; i++) {
+                    try {
+                        Provider<?> provider = graph.getProvider(sites[i].key);
+                        entry.providers[i] = provider;
+                        if (!sites[i].lazy) {
+                            entry.children[i] = entries.get(provider.implementationType());
+                        }
+                    } catch (ProviderMissingException e) {
+                        //Reported when the site is injected or released
+                    }
+                }
+                rootEntries.put(type, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Tarjan's strongly connected components over the entries, walked by an explicit stack of
+     * frames so a long chain of dependencies can't overflow the stack
+     */
+    private static class CycleFinder {
+        /**
+         * Frame of the walk visiting the children of an entry
+         */
+        private static final class Frame {
+            private final Entry entry;
+            //{index, lowLink}
+            private final int[] index;
+            private int next;
+
+            private Frame(Entry entry, int[] index) {
+                this.entry = entry;
+                this.index = index;
+            }
+        }
+
+        private final Collection<Entry> entries;
+        private final Map<Entry, int[]> indexes = new IdentityHashMap<>();
+        private final Deque<Entry> stack = new ArrayDeque<>();
+        private final Map<Entry, Boolean> onStack = new IdentityHashMap<>();
+        private final Deque<Frame> frames = new ArrayDeque<>();
+        private int nextIndex;
+
+        CycleFinder(Collection<Entry> entries) {
+            this.entries = entries;
+        }
+
+        void markCycles() throws CircularDependenciesException {
+            for (Entry entry : entries) {
+                if (!indexes.containsKey(entry)) {
+                    visit(entry);
+                }
+            }
+        }
+
+        private void visit(Entry root) throws CircularDependenciesException {
+            frames.push(open(root));
+            while (!frames.isEmpty()) {
+                Frame frame = frames.peek();
+                Entry[] children = frame.entry.children;
+                if (frame.next < children.length) {
+                    Entry child = children[frame.next++];
+                    if (child == null) {
+                        continue;
+                    }
+                    int[] childIndex = indexes.get(child);
+                    if (childIndex == null) {
+                        frames.push(open(child));
+                    } else if (onStack.containsKey(child)) {
+                        frame.index[1] = Math.min(frame.index[1], childIndex[0]);
+                    }
+                    continue;
+                }
+
+                frames.pop();
+                if (frame.index[1] == frame.index[0]) {
+                    Set<Entry> component = Collections.newSetFromMap(
+                            new IdentityHashMap<Entry, Boolean>());
+                    Entry member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (member != frame.entry);
+                    checkComponent(component);
+                }
+                Frame parent = frames.peek();
+                if (parent != null) {
+                    parent.index[1] = Math.min(parent.index[1], frame.index[1]);
+                }
+            }
+        }
+
+        private Frame open(Entry entry) {
+            int[] index = {nextIndex, nextIndex};
+            nextIndex++;
+            indexes.put(entry, index);
+            stack.push(entry);
+            onStack.put(entry, Boolean.TRUE);
+            return new Frame(entry, index);
+        }
+
+        private static void checkComponent(Set<Entry> component)
+                throws CircularDependenciesException {
+            List<Provider<?>> links = new ArrayList<>();
+            boolean scoped = false;
+            for (Entry entry : component) {
+                for (int i = 0; i < entry.children.length; i++) {
+                    if (entry.children[i] != null && component.contains(entry.children[i])) {
+                        links.add(entry.providers[i]);
+                        scoped |= entry.providers[i].scopeCache != null;
+                    }
+                }
+            }
+            if (links.isEmpty()) {
+                return;
+            }
+
+            for (Entry entry : component) {
+                entry.acyclic = false;
+            }
+            if (!scoped) {
+                String msg = "Circular dependencies found. None of the providers below are " +
+                        "scoped so they can't be injected:\n";
+                for (Provider<?> provider : links) {
+                    msg += "  " + provider.key() + "\n";
+                }
+                throw new CircularDependenciesException(msg);
+            }
+        }
+    }
+}
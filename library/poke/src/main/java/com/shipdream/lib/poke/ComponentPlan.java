@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.ProvideException;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Qualifier;
+import javax.inject.Singleton;
+
+/**
+ * Immutable description of the methods annotated by {@link Provides} declared by a
+ * {@link Component} class. Scanning the methods and their annotations is done once per class and
+ * shared by every registration and unregistration of components of that class. Methods are called
+ * through the generated {@link PokeProvidesInvoker} when there is one, otherwise by reflection
+ * with the method opened once.
+ */
+final class ComponentPlan {
+    private static final Map<Class<?>, ComponentPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * A provide method with its binding resolved up front
+     */
+    static final class ProvidesMethod {
+        final Method method;
+        final Class<?> returnType;
+        final Annotation qualifier;
+        final boolean singleton;
+        /**
+         * Why the method can't be registered or null if it can
+         */
+        final String error;
+        private final PokeProvidesInvoker<Component> invoker;
+        private final int slot;
+
+        private ProvidesMethod(Method method, PokeProvidesInvoker<Component> invoker, int slot) {
+            this.method = method;
+            this.returnType = method.getReturnType();
+
+            boolean singleton = false;
+            Annotation qualifier = null;
+            String error = null;
+            for (Annotation a : method.getAnnotations()) {
+                if (a.annotationType() == Singleton.class) {
+                    singleton = true;
+                }
+
+                if (a.annotationType().isAnnotationPresent(Qualifier.class)) {
+                    if (qualifier != null && error == null) {
+                        error = "Only one Qualifier is supported for Provide method. " +
+                                String.format("Found multiple qualifier %s and %s for method %s",
+                                        qualifier.getClass().getName(), a.getClass().getName(),
+                                        method.getName());
+                    } else if (qualifier == null) {
+                        qualifier = a;
+                    }
+                }
+            }
+            if (returnType == void.class) {
+                error = String.format("Provides method %s must not return void.",
+                        method.getName());
+            }
+            this.singleton = singleton;
+            this.qualifier = qualifier;
+            this.error = error;
+
+            this.invoker = invoker;
+            this.slot = slot;
+            if (invoker == null) {
+                method.setAccessible(true);
+            }
+        }
+
+        Object invoke(Component component) throws ProvideException {
+            if (invoker != null) {
+                return invoker.provide(component, slot);
+            }
+            try {
+                return method.invoke(component);
+            } catch (IllegalAccessException e) {
+                throw new ProvideException(String.format("Provides method %s must " +
+                        "be accessible.", method.getName()), e);  // $COVERAGE-IGNORE$
+            } catch (InvocationTargetException e) {
+                throw new ProvideException(String.format("Provides method %s is not able " +
+                        "to be invoked against %s.", method.getName(), component.getClass().getName()), e);  // $COVERAGE-IGNORE$
+            }
+        }
+    }
+
+    final ProvidesMethod[] methods;
+
+    private ComponentPlan(ProvidesMethod[] methods) {
+        this.methods = methods;
+    }
+
+    /**
+     * Get the cached plan of the component class or build and cache it on first use
+     * @param clazz The class of the component
+     * @return The plan
+     */
+    static ComponentPlan get(Class<? extends Component> clazz) {
+        ComponentPlan plan = plans.get(clazz);
+        if (plan == null) {
+            //Racing threads may build the same plan twice which is harmless
+            plan = build(clazz);
+            plans.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    private static ComponentPlan build(Class<? extends Component> clazz) {
+        PokeProvidesInvoker<Component> invoker = findGeneratedInvoker(clazz);
+        List<String> slots = invoker == null ? null : Arrays.asList(invoker.methodNames());
+        List<ProvidesMethod> methods = new ArrayList<>();
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(Provides.class)) {
+                int slot = slots == null ? -1 : slots.indexOf(method.getName());
+                //Methods unknown to a stale generated invoker are still called by reflection
+                methods.add(new ProvidesMethod(method, slot < 0 ? null : invoker, slot));
+            }
+        }
+        return new ComponentPlan(methods.toArray(new ProvidesMethod[methods.size()]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PokeProvidesInvoker<Component> findGeneratedInvoker(Class<?> clazz) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        if (classLoader == null) {
+            return null;  // $COVERAGE-IGNORE$
+        }
+        try {
+            Class<?> invokerClass = Class.forName(clazz.getName()
+                    + PokeProvidesInvoker.CLASS_NAME_SUFFIX, true, classLoader);
+            return (PokeProvidesInvoker<Component>) invokerClass.getDeclaredConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return null;  // $COVERAGE-IGNORE$
+        }
+    }
+}
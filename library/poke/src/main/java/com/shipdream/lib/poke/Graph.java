@@ -18,21 +18,27 @@ package com.shipdream.lib.poke;
 
 import com.shipdream.lib.poke.Provider.OnFreedListener;
 import com.shipdream.lib.poke.exception.CircularDependenciesException;
+import com.shipdream.lib.poke.exception.PokeException;
 import com.shipdream.lib.poke.exception.ProvideException;
 import com.shipdream.lib.poke.exception.ProviderMissingException;
-import com.shipdream.lib.poke.util.ReflectUtils;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
@@ -41,12 +47,419 @@ import javax.inject.Inject;
  */
 public abstract class Graph {
     private List<ProviderFinder> providerFinders;
-    private Map<Class, ProviderFinder> finderCache = new HashMap<>();
+    /**
+     * Providers resolved by the finders keyed by type and qualifier. It's cleared whenever a
+     * {@link ProviderFinderByRegistry} of the graph changes its bindings.
+     */
+    private final Map<ProviderKey, Provider<?>> resolvedProviders = new ConcurrentHashMap<>();
+    private final AtomicInteger resolvedProvidersRevision = new AtomicInteger();
+    private final ProviderFinderByRegistry.OnChangedListener registryChangedListener =
+            new ProviderFinderByRegistry.OnChangedListener() {
+                @Override
+                public void onChanged(ProviderFinderByRegistry registry) {
+                    clearResolvedProviders();
+                }
+            };
+    private Map<Class<? extends Annotation>, Map<Class<?>, InjectionPlan>> injectionPlans = new ConcurrentHashMap<>();
     private List<OnFreedListener> onProviderFreedListeners;
     private List<Monitor> monitors;
-    private String revisitedNode = null;
-    private Set<String> visitedInjectNodes = new LinkedHashSet<>();
-    private Map<Object, Map<String, Set<String>>> visitedFields = new HashMap<>();
+    private List<DetailedMonitor> detailedMonitors;
+    private final ThreadLocal<Context> contexts = new ThreadLocal<>();
+    private volatile CompiledGraph compiledGraph;
+    /**
+     * How long freeing a scoped instance no longer referenced is deferred. 0 frees it right away.
+     */
+    private volatile long disposalGracePeriodNanos;
+    /**
+     * Providers whose instances are no longer referenced but not freed yet, from the earliest
+     * deadline to the latest. Locked after the lock of a provider when both are held.
+     */
+    private final Map<Provider<?>, DeferredDisposal> deferredDisposals = new LinkedHashMap<>();
+
+    /**
+     * The graph this child graph falls through to when it can't resolve a binding. Null for root
+     * graphs.
+     */
+    private final Graph parent;
+    private final List<Graph> children = new CopyOnWriteArrayList<>();
+    /**
+     * Providers resolved from the parent graph
+     */
+    private final Set<Provider<?>> parentProviders =
+            Collections.newSetFromMap(new ConcurrentHashMap<Provider<?>, Boolean>());
+    /**
+     * References this child graph holds on providers resolved from the parent graph, so they can
+     * be released at once without walking fields when the child is disposed. Guarded by itself.
+     */
+    private final Map<Provider<?>, List<ParentReference>> parentReferences = new IdentityHashMap<>();
+
+    /**
+     * Receipts of injected targets not released yet. Targets are held weakly, so a target which is
+     * never released doesn't pin itself and the instances its receipt records in the graph.
+     * Guarded by itself.
+     */
+    private final WeakIdentityMap<Object, Receipt> receipts = new WeakIdentityMap<>();
+
+    /**
+     * What injecting a target retained, in the order of its sites, with the receipts of the
+     * instances injected into them. Releasing the target replays it instead of reading fields
+     * and tracking visited nodes. When a target is injected again before being released, its
+     * receipts are stacked by {@link #previous}.
+     */
+    private static final class Receipt {
+        private Provider<?>[] providers;
+        private InjectionPlan.Site[] sites;
+        private Object[] instances;
+        private Receipt[] children;
+        private int size;
+        private Receipt previous;
+        /**
+         * The inject annotation of the injection a receipt of a root target is taken for
+         */
+        private Class<? extends Annotation> injectAnnotation;
+
+        private void add(Provider<?> provider, InjectionPlan.Site site, Object instance,
+                         Receipt child) {
+            if (providers == null) {
+                providers = new Provider<?>[4];
+                sites = new InjectionPlan.Site[4];
+                instances = new Object[4];
+                children = new Receipt[4];
+            } else if (size == providers.length) {
+                providers = Arrays.copyOf(providers, size * 2);
+                sites = Arrays.copyOf(sites, size * 2);
+                instances = Arrays.copyOf(instances, size * 2);
+                children = Arrays.copyOf(children, size * 2);
+            }
+            providers[size] = provider;
+            sites[size] = site;
+            instances[size] = instance;
+            children[size] = child != null && child.size > 0 ? child : null;
+            size++;
+        }
+    }
+
+    /**
+     * Max number of released receipts a context keeps for reuse
+     */
+    private static final int MAX_FREE_RECEIPTS = 64;
+
+    private static final InjectionPlan.Site[] NO_SITES = new InjectionPlan.Site[0];
+
+    /**
+     * Frame of the inject work stack injecting the sites of a target
+     */
+    private static final class InjectFrame {
+        private Object target;
+        private InjectionPlan.Site[] sites = NO_SITES;
+        /**
+         * Compiled providers of the sites or null to resolve them on the fly
+         */
+        private Provider<?>[] providers;
+        private CompiledGraph.Entry[] children;
+        private int index;
+        private int depth;
+        /**
+         * Provider of the target to stop tracking as visited once the frame is done
+         */
+        private Provider<?> visited;
+        private Receipt receipt;
+        //How the target was provided to the site of its owner. Provider is null for root targets.
+        private Provider<?> provider;
+        private InjectionPlan.Site site;
+        private boolean firstTimeInject;
+        private List<DetailedMonitor> detailed;
+        private long start;
+        private Receipt ownerReceipt;
+
+        private void clear() {
+            target = null;
+            sites = NO_SITES;
+            providers = null;
+            children = null;
+            index = 0;
+            depth = 0;
+            visited = null;
+            receipt = null;
+            provider = null;
+            site = null;
+            firstTimeInject = false;
+            detailed = null;
+            start = 0;
+            ownerReceipt = null;
+        }
+    }
+
+    /**
+     * Frame of the release work stack releasing a target either by its sites or by the receipt of
+     * its injection
+     */
+    private static final class ReleaseFrame {
+        private Object target;
+        private InjectionPlan.Site[] sites = NO_SITES;
+        /**
+         * Compiled providers of the sites or null to resolve them on the fly
+         */
+        private Provider<?>[] providers;
+        private CompiledGraph.Entry[] children;
+        private Receipt receipt;
+        private int index;
+        /**
+         * Provider of the target to stop tracking as visited once the frame is done
+         */
+        private Provider<?> visited;
+        //The reference of the target to release once the frame is done. Provider is null for
+        //root targets.
+        private Provider<?> provider;
+        private Object owner;
+        private Field field;
+
+        private void clear() {
+            target = null;
+            sites = NO_SITES;
+            providers = null;
+            children = null;
+            receipt = null;
+            index = 0;
+            visited = null;
+            provider = null;
+            owner = null;
+            field = null;
+        }
+    }
+
+    private static final class ParentReference {
+        private final Object instance;
+        private final Object owner;
+        private final Field field;
+        private final Class<? extends Annotation> injectAnnotation;
+
+        private ParentReference(Object instance, Object owner, Field field,
+                                Class<? extends Annotation> injectAnnotation) {
+            this.instance = instance;
+            this.owner = owner;
+            this.field = field;
+            this.injectAnnotation = injectAnnotation;
+        }
+    }
+
+    private static final class DeferredDisposal {
+        private final long deadline;
+        private final Class<? extends Annotation> injectAnnotation;
+
+        private DeferredDisposal(long deadline, Class<? extends Annotation> injectAnnotation) {
+            this.deadline = deadline;
+            this.injectAnnotation = injectAnnotation;
+        }
+    }
+
+    /**
+     * State of a single call to inject, release, reference or dereference. Each thread reuses its
+     * own context unless the call is nested in another one on the same thread, e.g. from an
+     * {@link Provider.OnInjectedListener}, which gets a fresh context. While in use the context
+     * provides arguments of {@link Inject} constructors called on the thread.
+     */
+    private final class Context implements ProviderByClassType.ArgumentsProvider {
+        /**
+         * Providers visited down the current path of the traversal, as a bitset indexed by
+         * {@link Provider#id} to check revisits and as a stack to tell the circular path
+         */
+        private long[] visitedIds = new long[4];
+        private Provider<?>[] visitPath = new Provider<?>[8];
+        private int visitDepth;
+        private Provider<?> revisitedNode;
+        private boolean inUse;
+        private Class<? extends Annotation> injectAnnotation;
+        private ProviderByClassType.ArgumentsProvider previousArgumentsProvider;
+        /**
+         * Depth of the object being injected. Fields of a root target are at depth 1.
+         */
+        private int depth;
+        /**
+         * Providers resolved so far by a batch call, shared by all of its targets. Null when the
+         * call is not a batch.
+         */
+        private Map<ProviderKey, Provider<?>> batchProviders;
+        /**
+         * Receipt the sites injected into the current target are recorded to. Null when the
+         * injection is not recorded.
+         */
+        private Receipt receipt;
+        /**
+         * Receipts released by this context, linked by {@link Receipt#previous}, to be reused by
+         * later injections instead of allocating new ones
+         */
+        private Receipt freeReceipts;
+        private int freeReceiptCount;
+        /**
+         * Work stacks of the iterative injection and release. Frames are reused by later calls on
+         * the context. Nested runs, e.g. for arguments of {@link Inject} constructors, push their
+         * frames above the ones in progress.
+         */
+        private InjectFrame[] injectFrames = new InjectFrame[8];
+        private int injectTop;
+        private ReleaseFrame[] releaseFrames = new ReleaseFrame[8];
+        private int releaseTop;
+
+        private Receipt obtainReceipt() {
+            Receipt receipt = freeReceipts;
+            if (receipt == null) {
+                return new Receipt();
+            }
+            freeReceipts = receipt.previous;
+            freeReceiptCount--;
+            receipt.previous = null;
+            return receipt;
+        }
+
+        /**
+         * Clear the receipt and the receipts of its children and keep them for reuse. The receipt
+         * must not be referenced by the graph any more.
+         */
+        private void recycleReceipt(Receipt receipt) {
+            receipt.previous = null;
+            Receipt pending = receipt;
+            while (pending != null) {
+                Receipt r = pending;
+                pending = r.previous;
+                for (int i = 0; i < r.size; i++) {
+                    Receipt child = r.children[i];
+                    if (child != null) {
+                        child.previous = pending;
+                        pending = child;
+                    }
+                }
+                if (r.size > 0) {
+                    Arrays.fill(r.providers, 0, r.size, null);
+                    Arrays.fill(r.sites, 0, r.size, null);
+                    Arrays.fill(r.instances, 0, r.size, null);
+                    Arrays.fill(r.children, 0, r.size, null);
+                    r.size = 0;
+                }
+                r.injectAnnotation = null;
+                if (freeReceiptCount < MAX_FREE_RECEIPTS) {
+                    r.previous = freeReceipts;
+                    freeReceipts = r;
+                    freeReceiptCount++;
+                } else {
+                    r.previous = null;
+                }
+            }
+        }
+
+        private InjectFrame pushInjectFrame() {
+            if (injectTop == injectFrames.length) {
+                injectFrames = Arrays.copyOf(injectFrames, injectTop * 2);
+            }
+            InjectFrame frame = injectFrames[injectTop];
+            if (frame == null) {
+                frame = new InjectFrame();
+                injectFrames[injectTop] = frame;
+            }
+            injectTop++;
+            return frame;
+        }
+
+        /**
+         * Pop and clear the inject frames down to the given size of the stack
+         */
+        private void popInjectFrames(int size) {
+            while (injectTop > size) {
+                injectFrames[--injectTop].clear();
+            }
+        }
+
+        private ReleaseFrame pushReleaseFrame() {
+            if (releaseTop == releaseFrames.length) {
+                releaseFrames = Arrays.copyOf(releaseFrames, releaseTop * 2);
+            }
+            ReleaseFrame frame = releaseFrames[releaseTop];
+            if (frame == null) {
+                frame = new ReleaseFrame();
+                releaseFrames[releaseTop] = frame;
+            }
+            releaseTop++;
+            return frame;
+        }
+
+        /**
+         * Pop and clear the release frames down to the given size of the stack
+         */
+        private void popReleaseFrames(int size) {
+            while (releaseTop > size) {
+                releaseFrames[--releaseTop].clear();
+            }
+        }
+
+        @Override
+        public ProviderByClassType.Arguments provideArguments(ProviderByClassType<?> provider)
+                throws ProvideException {
+            return Graph.this.provideArguments(this, provider);
+        }
+
+        @Override
+        public void releaseArguments(ProviderByClassType<?> provider,
+                                     ProviderByClassType.Arguments arguments) throws ProvideException {
+            try {
+                Graph.this.releaseArguments(this, provider, arguments, arguments.values.length);
+            } catch (ProviderMissingException e) {
+                throw new ProvideException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Construct a root graph
+     */
+    protected Graph() {
+        this(null);
+    }
+
+    /**
+     * Construct a child graph resolving bindings its own finders can't find from the parent
+     * @param parent The parent graph or null for a root graph
+     */
+    Graph(Graph parent) {
+        this.parent = parent;
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    private Context obtainContext(Class<? extends Annotation> injectAnnotation) {
+        Context context = contexts.get();
+        if (context == null) {
+            context = new Context();
+            contexts.set(context);
+        } else if (context.inUse) {
+            context = new Context();
+        }
+        context.inUse = true;
+        context.injectAnnotation = injectAnnotation;
+        context.previousArgumentsProvider = ProviderByClassType.argumentsProviders.get();
+        ProviderByClassType.argumentsProviders.set(context);
+        return context;
+    }
+
+    private static void recycleContext(Context context) {
+        if (context.previousArgumentsProvider == null) {
+            ProviderByClassType.argumentsProviders.remove();
+        } else {
+            ProviderByClassType.argumentsProviders.set(context.previousArgumentsProvider);
+        }
+        context.previousArgumentsProvider = null;
+        context.injectAnnotation = null;
+        while (context.visitDepth > 0) {
+            unrecordVisit(context, context.visitPath[context.visitDepth - 1]);
+        }
+        context.revisitedNode = null;
+        context.batchProviders = null;
+        context.receipt = null;
+        context.popInjectFrames(0);
+        context.popReleaseFrames(0);
+        context.depth = 0;
+        context.inUse = false;
+    }
 
     /**
      * Register {@link OnFreedListener} which will be called when the provider
@@ -96,6 +509,12 @@ public abstract class Graph {
             monitors = new CopyOnWriteArrayList<>();
         }
         monitors.add(monitor);
+        if (monitor instanceof DetailedMonitor) {
+            if (detailedMonitors == null) {
+                detailedMonitors = new CopyOnWriteArrayList<>();
+            }
+            detailedMonitors.add((DetailedMonitor) monitor);
+        }
     }
 
     /**
@@ -110,6 +529,12 @@ public abstract class Graph {
                 monitors = null;
             }
         }
+        if (detailedMonitors != null) {
+            detailedMonitors.remove(monitor);
+            if (detailedMonitors.isEmpty()) {
+                detailedMonitors = null;
+            }
+        }
     }
 
     /**
@@ -120,6 +545,58 @@ public abstract class Graph {
             monitors.clear();
             monitors = null;
         }
+        if (detailedMonitors != null) {
+            detailedMonitors.clear();
+            detailedMonitors = null;
+        }
+    }
+
+    /**
+     * Defer freeing scoped instances that are no longer referenced. When such an instance is
+     * referenced again within the grace period, e.g. by the next screen injecting the same
+     * controller, it's reused instead of being disposed and created again. Deferred instances are
+     * freed by {@link #disposeDeferred()} or the next time the graph releases an instance after
+     * their grace period has passed.
+     *
+     * @param gracePeriod How long to defer. 0, which is the default, frees instances right away
+     *                    and frees all instances currently deferred.
+     * @param unit The unit of the grace period
+     */
+    public void setDisposalGracePeriod(long gracePeriod, TimeUnit unit) throws ProviderMissingException {
+        if (gracePeriod < 0) {
+            throw new IllegalArgumentException("gracePeriod must not be negative");
+        }
+        disposalGracePeriodNanos = unit.toNanos(gracePeriod);
+        if (gracePeriod == 0) {
+            disposeDeferred();
+        }
+    }
+
+    /**
+     * Free all instances whose disposal is deferred by {@link #setDisposalGracePeriod(long, TimeUnit)}
+     * and still not referenced, e.g. when the navigation settles.
+     */
+    public void disposeDeferred() throws ProviderMissingException {
+        disposeDeferred(false);
+    }
+
+    /**
+     * Take a snapshot of the providers registered to the {@link ProviderFinderByRegistry}s of the
+     * graph and the providers resolved by the graph so far, e.g. to find instances leaking because
+     * a release is missed or to size the cached instances.
+     * @return The snapshot
+     */
+    public GraphSnapshot snapshot() {
+        Set<Provider<?>> providers = new LinkedHashSet<>();
+        if (providerFinders != null) {
+            for (ProviderFinder providerFinder : providerFinders) {
+                if (providerFinder instanceof ProviderFinderByRegistry) {
+                    providers.addAll(((ProviderFinderByRegistry) providerFinder).getProviders());
+                }
+            }
+        }
+        providers.addAll(resolvedProviders.values());
+        return GraphSnapshot.take(providers);
     }
 
     /**
@@ -129,6 +606,10 @@ public abstract class Graph {
      * <p>Note that, when there are multiple {@link ProviderFinder}s able to inject an instance the
      * later merged graph wins.</p>
      *
+     * <p>Providers found by the finders are cached by the graph. The cache is cleared automatically
+     * when bindings of a {@link ProviderFinderByRegistry} change. Other finders whose results
+     * change over time need to call {@link #clearResolvedProviders()}.</p>
+     *
      * @param providerFinders The {@link ProviderFinder}s to add
      */
     protected void addProviderFinders(ProviderFinder... providerFinders) {
@@ -136,6 +617,26 @@ public abstract class Graph {
             this.providerFinders = new ArrayList<>();
         }
         this.providerFinders.addAll(Arrays.asList(providerFinders));
+        for (ProviderFinder providerFinder : providerFinders) {
+            if (providerFinder instanceof ProviderFinderByRegistry) {
+                ((ProviderFinderByRegistry) providerFinder)
+                        .registerOnChangedListener(registryChangedListener);
+            }
+        }
+        clearResolvedProviders();
+    }
+
+    /**
+     * Clear providers cached by the graph so they will be found by the {@link ProviderFinder}s
+     * again on next lookup.
+     */
+    protected void clearResolvedProviders() {
+        resolvedProvidersRevision.incrementAndGet();
+        resolvedProviders.clear();
+        //Children may have cached providers of this graph
+        for (Graph child : children) {
+            child.clearResolvedProviders();
+        }
     }
 
     /**
@@ -153,10 +654,43 @@ public abstract class Graph {
                 monitors.get(i).onInject(target);
             }
         }
-        doInject(target, null, null, null, injectAnnotation);
-        visitedInjectNodes.clear();
-        revisitedNode = null;
-        visitedFields.clear();
+        Context context = obtainContext(injectAnnotation);
+        try {
+            injectRecorded(context, target, null, injectAnnotation);
+        } finally {
+            recycleContext(context);
+        }
+    }
+
+    /**
+     * Inject all fields annotated by the given injectAnnotation of every target in one pass.
+     * Providers resolved for one target are reused by the following targets, so injecting a
+     * number of siblings, e.g. pages of a pager, costs less than calling
+     * {@link #inject(Object, Class)} on each of them. Providers registered or unregistered while
+     * the batch is running are not seen by it.
+     * <p>When an exception is thrown, targets before the failed one stay injected.</p>
+     *
+     * @param targets          Whose fields will be injected
+     * @param injectAnnotation Annotated which a field will be recognize
+     * @throws ProvideException
+     */
+    public void injectAll(Collection<?> targets, Class<? extends Annotation> injectAnnotation)
+            throws ProvideException, ProviderMissingException, CircularDependenciesException {
+        Context context = obtainContext(injectAnnotation);
+        context.batchProviders = new HashMap<>();
+        try {
+            for (Object target : targets) {
+                if (monitors != null) {
+                    int size = monitors.size();
+                    for (int i = 0; i < size; i++) {
+                        monitors.get(i).onInject(target);
+                    }
+                }
+                injectRecorded(context, target, null, injectAnnotation);
+            }
+        } finally {
+            recycleContext(context);
+        }
     }
 
     /**
@@ -288,19 +822,36 @@ public abstract class Graph {
      */
     public <T> T reference(Class<T> type, Annotation qualifier, Class<? extends Annotation> injectAnnotation)
             throws ProviderMissingException, ProvideException, CircularDependenciesException {
-         Provider<T> provider = getProvider(type, qualifier);
-        T instance = provider.get();
-        doInject(instance, null, type, qualifier, injectAnnotation);
-        provider.retain();
-        if (provider.getReferenceCount() == 1) {
-            provider.notifyInjected(instance);
+        ProviderKey key = new ProviderKey(type, qualifier);
+        @SuppressWarnings("unchecked")
+        Provider<T> provider = (Provider<T>) getProvider(key);
+        Context context = obtainContext(injectAnnotation);
+        try {
+            List<DetailedMonitor> detailed = detailedMonitors;
+            long start = 0;
+            if (detailed != null) {
+                start = System.nanoTime();
+                notifyProviderResolved(detailed, provider, 0);
+            }
+            T instance;
+            boolean firstTimeInject;
+            synchronized (provider) {
+                instance = detailed == null ? provider.get() : getMonitored(detailed, provider, 0);
+                provider.retain();
+                firstTimeInject = provider.getReferenceCount() == 1;
+            }
+            recordParentReference(context, provider, instance, null, null);
+            injectRecorded(context, instance, provider, injectAnnotation);
+            if (firstTimeInject) {
+                provider.notifyInjected(instance);
+            }
+            if (detailed != null) {
+                notifyProviderInjected(detailed, provider, instance, 0, System.nanoTime() - start);
+            }
+            return instance;
+        } finally {
+            recycleContext(context);
         }
-
-        //Clear visiting records
-        visitedFields.clear();
-        visitedInjectNodes.clear();
-
-        return instance;
     }
 
     /**
@@ -312,235 +863,1098 @@ public abstract class Graph {
      */
     public <T> void dereference(T instance, Class<T> type, Annotation qualifier,
                                 Class<? extends Annotation> injectAnnotation) throws ProviderMissingException {
-        doRelease(instance, null, type, qualifier, injectAnnotation);
-
-        Provider<T> provider = getProvider(type, qualifier);
-        provider.release();
-        checkToFreeProvider(provider);
+        ProviderKey key = new ProviderKey(type, qualifier);
+        Context context = obtainContext(injectAnnotation);
+        try {
+            @SuppressWarnings("unchecked")
+            Provider<T> provider = (Provider<T>) getProvider(key);
+            releaseRecorded(context, instance, provider, injectAnnotation);
+            releaseReference(context, provider, instance, null, null);
+        } finally {
+            recycleContext(context);
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    private void doInject(Object target, Field targetField, Class targetType, Annotation targetQualifier,
+    /**
+     * Inject the target and, iteratively, everything injected into it. The provider of the target
+     * is null for root targets.
+     */
+    private void doInject(Context context, Object target, Provider<?> targetProvider,
                           Class<? extends Annotation> injectAnnotation)
             throws ProvideException, ProviderMissingException, CircularDependenciesException {
-        boolean circularDetected = false;
-        Provider targetProvider;
-        ScopeCache.CachedItem cachedTargetItem = null;
-        if (targetType != null) {
-            //Nested injection
-            circularDetected = recordVisit(targetType, targetQualifier);
-            targetProvider = getProvider(targetType, targetQualifier);
-            if (targetProvider.scopeCache != null) {
-                cachedTargetItem = targetProvider.scopeCache.findCacheItem(targetType, targetQualifier);
-            }
-            boolean infiniteCircularInjection = true;
-            if (circularDetected) {
-                if (cachedTargetItem != null) {
-                    infiniteCircularInjection = false;
+        int base = context.injectTop;
+        int depth = context.depth;
+        try {
+            InjectFrame frame = context.pushInjectFrame();
+            frame.depth = depth;
+            frame.receipt = context.receipt;
+            prepareInjectFrame(context, frame, target, targetProvider, null, injectAnnotation);
+            runInject(context, base, injectAnnotation);
+        } finally {
+            context.popInjectFrames(base);
+            context.depth = depth;
+        }
+    }
+
+    /**
+     * Run the inject frames above the base of the work stack. Each frame walks the sites of its
+     * target, pushing a frame for the instance provided to every site. Once a frame is done, the
+     * instance is recorded to the receipt of its owner and reported as injected.
+     */
+    private void runInject(Context context, int base,
+                           Class<? extends Annotation> injectAnnotation)
+            throws ProvideException, ProviderMissingException, CircularDependenciesException {
+        while (context.injectTop > base) {
+            InjectFrame frame = context.injectFrames[context.injectTop - 1];
+            if (frame.index < frame.sites.length) {
+                int i = frame.index++;
+                InjectionPlan.Site site = frame.sites[i];
+                Provider<?> provider;
+                if (frame.providers == null) {
+                    provider = getProvider(context, site.key);
+                } else {
+                    provider = frame.providers[i];
+                    if (provider == null) {
+                        throw new ProviderMissingException(site.type, site.qualifier);
+                    }
                 }
 
-                if (infiniteCircularInjection) {
-                    throwCircularDependenciesException();
+                if (site.lazy) {
+                    injectLazySite(frame.target, site, provider, injectAnnotation);
+                    if (frame.receipt != null) {
+                        frame.receipt.add(provider, site, null, null);
+                    }
+                } else {
+                    context.depth = frame.depth;
+                    InjectFrame child = provideSite(context, frame, site, provider);
+                    prepareInjectFrame(context, child, child.target, provider,
+                            frame.children == null ? null : frame.children[i], injectAnnotation);
                 }
+                continue;
             }
-        }
-
-        if (!circularDetected && target != null) {
-            Class<?> clazz = target.getClass();
-            while (clazz != null) {
-                Field[] fields = clazz.getDeclaredFields();
-                for (Field field : fields) {
-                    if (field.isAnnotationPresent(injectAnnotation)) {
-                        Class fieldType = field.getType();
-                        Annotation fieldQualifier = ReflectUtils.findFirstQualifier(field);
-                        Provider provider = getProvider(fieldType, fieldQualifier);
-
-                        Object impl = provider.get();
-                        provider.retain(target, field);
-
-                        ReflectUtils.setField(target, field, impl);
-
-                        boolean firstTimeInject = provider.getReferenceCount() == 1;
-                        boolean visited = isFieldVisited(target, targetField, field);
-                        if (!visited) {
-                            doInject(impl, field, fieldType, fieldQualifier, injectAnnotation);
-                        }
 
-                        if (firstTimeInject) {
-                            provider.notifyInjected(impl);
-                        }
+            Provider<?> provider = frame.provider;
+            InjectionPlan.Site site = frame.site;
+            Object impl = frame.target;
+            Receipt ownerReceipt = frame.ownerReceipt;
+            Receipt receipt = frame.receipt;
+            boolean firstTimeInject = frame.firstTimeInject;
+            List<DetailedMonitor> detailed = frame.detailed;
+            long start = frame.start;
+            int depth = frame.depth;
+            if (frame.visited != null) {
+                unrecordVisit(context, frame.visited);
+            }
+            context.popInjectFrames(context.injectTop - 1);
+            if (provider == null) {
+                continue;
+            }
 
-                        recordVisitField(target, targetField, field);
-                    }
+            if (ownerReceipt != null) {
+                ownerReceipt.add(provider, site, impl, receipt);
+                if (receipt != null && receipt.size == 0) {
+                    context.recycleReceipt(receipt);
                 }
-                clazz = clazz.getSuperclass();
             }
 
-            if (targetType != null) {
-                unrecordVisit(targetType, targetQualifier);
+            if (firstTimeInject) {
+                notifyInjected(provider, impl);
+            }
+
+            if (detailed != null) {
+                notifyProviderInjected(detailed, provider, impl, depth, System.nanoTime() - start);
             }
         }
     }
 
     /**
-     * Release cached instances held by fields of target object. References of cache of the
-     * instances will be decremented. Once the reference count of a controller reaches 0, it will
-     * be removed from the cache and raise {@link OnFreedListener}.
-     *
-     * @param target           Whose fields will be injected
-     * @param injectAnnotation Annotated which a field will be recognize
+     * Set up the frame to inject the sites of the target, by its compiled entry if there is one.
+     * Circular dependencies are tracked for the target unless it's compiled as acyclic. A
+     * revisited target which is cached gets no sites since it's injected up the stack already.
+     * @param compiledChild The compiled entry of the site holding the target, if any
      */
-    public void release(Object target, Class<? extends Annotation> injectAnnotation) throws ProviderMissingException {
-        if (monitors != null) {
-            int size = monitors.size();
-            for (int i = 0; i < size; i++) {
-                monitors.get(i).onRelease(target);
-            }
+    private void prepareInjectFrame(Context context, InjectFrame frame, Object target,
+                                    Provider<?> targetProvider, CompiledGraph.Entry compiledChild,
+                                    Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException, CircularDependenciesException {
+        frame.target = target;
+        CompiledGraph.Entry entry = isCompiledAcyclic(compiledChild, target) ? compiledChild
+                : findCompiledEntry(target, targetProvider, injectAnnotation);
+        if (entry != null) {
+            frame.sites = entry.plan.sites;
+            frame.providers = entry.providers;
+            frame.children = entry.children;
+            return;
         }
-        doRelease(target, null, null, null, injectAnnotation);
-        visitedInjectNodes.clear();
-        revisitedNode = null;
-        visitedFields.clear();
-    }
-
-    private void doRelease(Object target, Field targetField, Class targetType, Annotation targetQualifier,
-                           final Class<? extends Annotation> injectAnnotation) throws ProviderMissingException {
-        Class<?> clazz = target.getClass();
 
         boolean circularDetected = false;
+        if (targetProvider != null) {
+            //Nested injection
+            circularDetected = recordVisit(context, targetProvider);
+            ScopeCache.CachedItem<?> cachedTargetItem = null;
+            if (targetProvider.scopeCache != null) {
+                cachedTargetItem = targetProvider.scopeCache.findCacheItem(targetProvider.key());
+            }
+            if (circularDetected && cachedTargetItem == null) {
+                throwCircularDependenciesException(context);
+            }
+        }
 
-        if (targetType != null) {
-            circularDetected = recordVisit(targetType, targetQualifier);
+        if (!circularDetected && target != null) {
+            frame.sites = getInjectionPlan(target.getClass(), injectAnnotation).sites;
+            frame.visited = targetProvider;
         }
+    }
 
-        if (!circularDetected) {
-            while (clazz != null) {
-                Field[] fields = clazz.getDeclaredFields();
-                for (Field field : fields) {
-                    if (field.isAnnotationPresent(injectAnnotation)) {
-                        Object fieldValue = ReflectUtils.getFieldValue(target, field);
-                        if(fieldValue != null) {
-                            final Class<?> fieldType = field.getType();
-                            Annotation fieldQualifier = ReflectUtils.findFirstQualifier(field);
-                            Provider provider = getProvider(fieldType, fieldQualifier);
-
-                            boolean stillReferenced = provider.getReferenceCount(target, field) > 0;
-                            boolean fieldVisited = isFieldVisited(target, targetField, field);
-                            if (!fieldVisited && stillReferenced) {
-                                recordVisitField(target, targetField, field);
-                                doRelease(fieldValue, field, fieldType, fieldQualifier, injectAnnotation);
-
-                                provider.release(target, field);
-
-                                checkToFreeProvider(provider);
-                            }
-                        }
-                    }
-                }
-                clazz = clazz.getSuperclass();
-            }
+    /**
+     * Inject the target and keep the receipt of the injection for releasing it
+     */
+    private void injectRecorded(Context context, Object target, Provider<?> targetProvider,
+                                Class<? extends Annotation> injectAnnotation)
+            throws ProvideException, ProviderMissingException, CircularDependenciesException {
+        Receipt receipt = context.obtainReceipt();
+        receipt.injectAnnotation = injectAnnotation;
+        context.receipt = receipt;
+        try {
+            doInject(context, target, targetProvider, injectAnnotation);
+        } finally {
+            context.receipt = null;
+        }
 
-            if (targetType != null) {
-                unrecordVisit(targetType, targetQualifier);
+        if (receipt.size > 0) {
+            synchronized (receipts) {
+                receipt.previous = receipts.put(target, receipt);
             }
+        } else {
+            context.recycleReceipt(receipt);
         }
     }
 
-    private void checkToFreeProvider(Provider provider) {
-        if (provider.getReferenceCount() == 0) {
-            if (onProviderFreedListeners != null) {
-                int listenerSize = onProviderFreedListeners.size();
-                for (int k = 0; k < listenerSize; k++) {
-                    onProviderFreedListeners.get(k).onFreed(provider);
+    /**
+     * Release the target by replaying the receipt of its last injection with the same inject
+     * annotation. Targets without such a receipt, e.g. injected by another graph, are released by
+     * walking their fields.
+     */
+    private void releaseRecorded(Context context, Object target, Provider<?> targetProvider,
+                                 Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException {
+        Receipt receipt;
+        synchronized (receipts) {
+            Receipt newer = null;
+            receipt = receipts.get(target);
+            while (receipt != null && receipt.injectAnnotation != injectAnnotation) {
+                newer = receipt;
+                receipt = receipt.previous;
+            }
+            if (receipt != null) {
+                if (newer != null) {
+                    newer.previous = receipt.previous;
+                } else {
+                    //The entry is kept when there is no receipt left for the target to be reused
+                    //by its next injection
+                    receipts.put(target, receipt.previous);
                 }
             }
+        }
 
-            provider.freeCache();
+        if (receipt == null) {
+            doRelease(context, target, targetProvider, injectAnnotation);
+        } else {
+            replay(context, target, receipt, injectAnnotation);
+            context.recycleReceipt(receipt);
         }
     }
 
     /**
-     * Records the field of a target object is visited
-     * @param object The field holder
-     * @param objectField The field which holds the object in its parent
-     * @param field The field of the holder
+     * Get the instance of the site from the provider, retain it for the field of the owner's
+     * target and set it to the field unless the site is lazy. The frame pushed for the instance
+     * completes the injection once its dependencies are injected.
+     * @return The frame of the instance
      */
-    private void recordVisitField(Object object, Field objectField, Field field) {
-        Map<String, Set<String>> bag = visitedFields.get(object);
-        if (bag == null) {
-            bag = new HashMap<>();
-            visitedFields.put(object, bag);
+    private InjectFrame provideSite(Context context, InjectFrame owner, InjectionPlan.Site site,
+                                    Provider<?> provider) throws ProvideException {
+        Object target = owner.target;
+        int depth = owner.depth + 1;
+        List<DetailedMonitor> detailed = detailedMonitors;
+        long start = 0;
+        if (detailed != null) {
+            start = System.nanoTime();
+            notifyProviderResolved(detailed, provider, depth);
         }
-        Set<String> fields = bag.get(objectField);
 
-        String objectFiledKey = objectField == null ? "" : objectField.toGenericString();
+        Object impl;
+        boolean firstTimeInject;
+        //Getting the cached instance and retaining it must not interleave with another
+        //thread releasing the last reference and freeing the cache
+        synchronized (provider) {
+            impl = detailed == null ? provider.get() : getMonitored(detailed, provider, depth);
+            provider.retain(target, site.field);
+            firstTimeInject = provider.getReferenceCount() == 1;
+        }
+        recordParentReference(context, provider, impl, target, site.field);
 
-        if(fields == null) {
-            fields = new HashSet<>();
-            bag.put(objectFiledKey, fields);
+        if (!site.lazy) {
+            site.set(target, impl);
         }
-        fields.add(field.toGenericString());
+
+        InjectFrame frame = context.pushInjectFrame();
+        frame.target = impl;
+        frame.depth = depth;
+        frame.provider = provider;
+        frame.site = site;
+        frame.firstTimeInject = firstTimeInject;
+        frame.detailed = detailed;
+        frame.start = start;
+        frame.ownerReceipt = owner.receipt;
+        frame.receipt = owner.receipt == null ? null : context.obtainReceipt();
+        context.depth = depth;
+        return frame;
     }
 
     /**
-     * Indicates whether the field of a target object is visited
-     * @param object The field holder
-     * @param objectField The field which holds the object in its parent
-     * @param field The field of the holder
+     * Provide the instance of a lazy site as {@link #provideSite(Context, InjectFrame,
+     * InjectionPlan.Site, Provider)} does and inject its dependencies before returning it
      */
-    private boolean isFieldVisited(Object object, Field objectField, Field field) {
-        Map<String, Set<String>> bag = visitedFields.get(object);
-        if (bag == null) {
-            return false;
+    private Object provideLazySite(Context context, Object target, InjectionPlan.Site site,
+                                   Provider<?> provider, Class<? extends Annotation> injectAnnotation)
+            throws ProvideException, ProviderMissingException, CircularDependenciesException {
+        int base = context.injectTop;
+        int depth = context.depth;
+        try {
+            InjectFrame owner = context.pushInjectFrame();
+            owner.target = target;
+            owner.depth = depth;
+            InjectFrame frame = provideSite(context, owner, site, provider);
+            Object impl = frame.target;
+            prepareInjectFrame(context, frame, impl, provider, null, injectAnnotation);
+            runInject(context, base, injectAnnotation);
+            return impl;
+        } finally {
+            context.popInjectFrames(base);
+            context.depth = depth;
         }
-
-        String objectFiledKey = objectField == null ? "" : objectField.toGenericString();
-        Set<String> fields = bag.get(objectFiledKey);
-        return fields != null && fields.contains(field);
     }
 
-    private boolean recordVisit(Class classType, Annotation qualifier) {
-        String key = makeCircularRecordKey(classType, qualifier);
-        boolean circularVisitDetected = visitedInjectNodes.contains(key);
-        if (!circularVisitDetected) {
-            visitedInjectNodes.add(key);
+    /**
+     * Set a {@link LazyInstance} to the lazy field of the target. When the target is injected
+     * again, the handle already set is kept and counts the injection.
+     */
+    @SuppressWarnings("unchecked")
+    private void injectLazySite(Object target, InjectionPlan.Site site, Provider<?> provider,
+                                Class<? extends Annotation> injectAnnotation) {
+        LazyInstance<?> lazy = findLazyInstance(target, site);
+        if (lazy == null) {
+            site.set(target, new LazyInstance<>(target, site, provider, injectAnnotation));
         } else {
-            revisitedNode = key;
+            synchronized (lazy) {
+                lazy.injections++;
+            }
         }
-        return circularVisitDetected;
-    }
-
-    private void unrecordVisit(Class classType, Annotation qualifier) {
-        String key = makeCircularRecordKey(classType, qualifier);
-        visitedInjectNodes.remove(key);
     }
 
-    private String makeCircularRecordKey(Class classType, Annotation qualifier) {
-        return classType.getName() + "@" + ((qualifier == null) ? "NoQualifier" : qualifier.toString());
+    /**
+     * Find the {@link LazyInstance} this graph has set to the lazy field of the target
+     * @return Null if the field doesn't hold a handle of this graph for the target
+     */
+    private LazyInstance<?> findLazyInstance(Object target, InjectionPlan.Site site) {
+        Object value = site.get(target);
+        if (value instanceof LazyInstance<?>) {
+            LazyInstance<?> lazy = (LazyInstance<?>) value;
+            if (lazy.graph() == this && lazy.owner == target) {
+                return lazy;
+            }
+        }
+        return null;
     }
 
-    Provider getProvider(Class type, Annotation qualifier) throws ProviderMissingException {
-        //Try finder cache first. If not found try to cache it.
-        Provider provider = null;
-        ProviderFinder providerFinder = finderCache.get(type);
-        if (providerFinder == null) {
-            int count = providerFinders.size();
-            for (int i = 0; i < count; i++) {
-                providerFinder = providerFinders.get(i);
-                provider = providerFinder.findProvider(type, qualifier);
-                if (provider != null) {
-                    finderCache.put(type, providerFinder);
-                    return provider;
+    /**
+     * Same as {@link Provider#get()} but reports cache hits and misses and instance creation to the
+     * given monitors
+     */
+    private static <T> T getMonitored(List<DetailedMonitor> monitors, Provider<T> provider, int depth)
+            throws ProvideException {
+        int size = monitors.size();
+        if (provider.scopeCache != null) {
+            T cached = provider.findCachedInstance();
+            if (cached != null) {
+                for (int i = 0; i < size; i++) {
+                    monitors.get(i).onCacheHit(provider, cached, depth);
                 }
+                return provider.get();
+            }
+            for (int i = 0; i < size; i++) {
+                monitors.get(i).onCacheMiss(provider, depth);
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            monitors.get(i).onCreateInstanceStart(provider, depth);
+        }
+        long start = System.nanoTime();
+        T instance = provider.get();
+        long elapsed = System.nanoTime() - start;
+        for (int i = 0; i < size; i++) {
+            monitors.get(i).onCreateInstanceEnd(provider, instance, depth, elapsed);
+        }
+        return instance;
+    }
+
+    private static void notifyProviderResolved(List<DetailedMonitor> monitors, Provider<?> provider,
+                                               int depth) {
+        int size = monitors.size();
+        for (int i = 0; i < size; i++) {
+            monitors.get(i).onProviderResolved(provider, depth);
+        }
+    }
+
+    private static void notifyProviderInjected(List<DetailedMonitor> monitors, Provider<?> provider,
+                                               Object instance, int depth, long elapsedNanos) {
+        int size = monitors.size();
+        for (int i = 0; i < size; i++) {
+            monitors.get(i).onProviderInjected(provider, instance, depth, elapsedNanos);
+        }
+    }
+
+    /**
+     * Release cached instances held by fields of target object. References of cache of the
+     * instances will be decremented. Once the reference count of a controller reaches 0, it will
+     * be removed from the cache and raise {@link OnFreedListener}.
+     *
+     * @param target           Whose fields will be injected
+     * @param injectAnnotation Annotated which a field will be recognize
+     */
+    public void release(Object target, Class<? extends Annotation> injectAnnotation) throws ProviderMissingException {
+        if (monitors != null) {
+            int size = monitors.size();
+            for (int i = 0; i < size; i++) {
+                monitors.get(i).onRelease(target);
+            }
+        }
+        Context context = obtainContext(injectAnnotation);
+        try {
+            releaseRecorded(context, target, null, injectAnnotation);
+        } finally {
+            recycleContext(context);
+        }
+    }
+
+    /**
+     * Release every target in one pass, sharing provider resolution across them the same way as
+     * {@link #injectAll(Collection, Class)}.
+     *
+     * @param targets          Whose fields will be released
+     * @param injectAnnotation Annotated which a field will be recognize
+     */
+    public void releaseAll(Collection<?> targets, Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException {
+        Context context = obtainContext(injectAnnotation);
+        context.batchProviders = new HashMap<>();
+        try {
+            for (Object target : targets) {
+                if (monitors != null) {
+                    int size = monitors.size();
+                    for (int i = 0; i < size; i++) {
+                        monitors.get(i).onRelease(target);
+                    }
+                }
+                releaseRecorded(context, target, null, injectAnnotation);
+            }
+        } finally {
+            recycleContext(context);
+        }
+    }
+
+    /**
+     * Release the target and, iteratively, everything injected into it. The provider of the target
+     * is null for root targets.
+     */
+    private void doRelease(Context context, Object target, Provider<?> targetProvider,
+                           Class<? extends Annotation> injectAnnotation) throws ProviderMissingException {
+        int base = context.releaseTop;
+        try {
+            ReleaseFrame frame = context.pushReleaseFrame();
+            prepareReleaseFrame(context, frame, target, targetProvider, null, injectAnnotation);
+            runRelease(context, base, injectAnnotation);
+        } finally {
+            context.popReleaseFrames(base);
+        }
+    }
+
+    /**
+     * Release the target by replaying the receipt of its injection
+     */
+    private void replay(Context context, Object target, Receipt receipt,
+                        Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException {
+        int base = context.releaseTop;
+        try {
+            ReleaseFrame frame = context.pushReleaseFrame();
+            frame.target = target;
+            frame.receipt = receipt;
+            runRelease(context, base, injectAnnotation);
+        } finally {
+            context.popReleaseFrames(base);
+        }
+    }
+
+    /**
+     * Run the release frames above the base of the work stack. Each frame walks either the sites
+     * of its target or the receipt of its injection, pushing a frame for every instance it has to
+     * release. Once a frame is done, the reference of its instance is released from its owner.
+     */
+    private void runRelease(Context context, int base,
+                            Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException {
+        while (context.releaseTop > base) {
+            ReleaseFrame frame = context.releaseFrames[context.releaseTop - 1];
+            Receipt receipt = frame.receipt;
+            int count = receipt == null ? frame.sites.length : receipt.size;
+            if (frame.index < count) {
+                int i = frame.index++;
+                if (receipt == null) {
+                    releaseSite(context, frame, i, injectAnnotation);
+                } else {
+                    replaySite(context, frame, i, injectAnnotation);
+                }
+                continue;
+            }
+
+            Provider<?> provider = frame.provider;
+            Object instance = frame.target;
+            Object owner = frame.owner;
+            Field field = frame.field;
+            if (frame.visited != null) {
+                unrecordVisit(context, frame.visited);
+            }
+            context.popReleaseFrames(context.releaseTop - 1);
+            if (provider != null) {
+                releaseReference(context, provider, instance, owner, field);
+            }
+        }
+    }
+
+    /**
+     * Set up the frame to release the sites of the target, by its compiled entry if there is one
+     * @param compiledChild The compiled entry of the site holding the target, if any
+     */
+    private void prepareReleaseFrame(Context context, ReleaseFrame frame, Object target,
+                                     Provider<?> targetProvider, CompiledGraph.Entry compiledChild,
+                                     Class<? extends Annotation> injectAnnotation) {
+        frame.target = target;
+        CompiledGraph.Entry entry = isCompiledAcyclic(compiledChild, target) ? compiledChild
+                : findCompiledEntry(target, targetProvider, injectAnnotation);
+        if (entry != null) {
+            frame.sites = entry.plan.sites;
+            frame.providers = entry.providers;
+            frame.children = entry.children;
+            return;
+        }
+
+        boolean circularDetected = false;
+        if (targetProvider != null) {
+            circularDetected = recordVisit(context, targetProvider);
+        }
+
+        if (!circularDetected) {
+            frame.sites = getInjectionPlan(target.getClass(), injectAnnotation).sites;
+            frame.visited = targetProvider;
+        }
+    }
+
+    private void releaseSite(Context context, ReleaseFrame frame, int index,
+                             Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException {
+        InjectionPlan.Site site = frame.sites[index];
+        Object target = frame.target;
+        Object fieldValue = site.get(target);
+        if (fieldValue == null) {
+            return;
+        }
+
+        Provider<?> provider;
+        if (frame.providers == null) {
+            provider = getProvider(context, site.key);
+        } else {
+            provider = frame.providers[index];
+            if (provider == null) {
+                throw new ProviderMissingException(site.type, site.qualifier);
+            }
+        }
+
+        if (site.lazy) {
+            releaseLazySite(context, target, site, provider, injectAnnotation);
+        } else if (provider.getReferenceCount(target, site.field) > 0) {
+            ReleaseFrame child = context.pushReleaseFrame();
+            child.provider = provider;
+            child.owner = target;
+            child.field = site.field;
+            prepareReleaseFrame(context, child, fieldValue, provider,
+                    frame.children == null ? null : frame.children[index], injectAnnotation);
+        }
+    }
+
+    private void replaySite(Context context, ReleaseFrame frame, int index,
+                            Class<? extends Annotation> injectAnnotation) {
+        Receipt receipt = frame.receipt;
+        InjectionPlan.Site site = receipt.sites[index];
+        Provider<?> provider = receipt.providers[index];
+        Object target = frame.target;
+        if (site.lazy) {
+            releaseLazySite(context, target, site, provider, injectAnnotation);
+        } else if (provider.getReferenceCount(target, site.field) > 0) {
+            ReleaseFrame child = context.pushReleaseFrame();
+            child.provider = provider;
+            child.owner = target;
+            child.field = site.field;
+            child.target = receipt.instances[index];
+            child.receipt = receipt.children[index];
+        }
+    }
+
+    /**
+     * Count off a release of the target from the {@link LazyInstance} of its lazy field. Once the
+     * target is released as many times as it's injected, a frame is pushed to release the
+     * instance if it has been got and the handle forgets it.
+     */
+    private void releaseLazySite(Context context, Object target, InjectionPlan.Site site,
+                                 Provider<?> provider, Class<? extends Annotation> injectAnnotation) {
+        LazyInstance<?> lazy = findLazyInstance(target, site);
+        if (lazy == null) {
+            return;
+        }
+
+        Object instance;
+        synchronized (lazy) {
+            if (lazy.injections == 0) {
+                return;
+            }
+            lazy.injections--;
+            if (lazy.injections > 0) {
+                return;
+            }
+            instance = lazy.instance;
+            lazy.instance = null;
+        }
+
+        Field field = site.field;
+        if (instance != null && provider.getReferenceCount(target, field) > 0) {
+            ReleaseFrame child = context.pushReleaseFrame();
+            child.provider = provider;
+            child.owner = target;
+            child.field = field;
+            prepareReleaseFrame(context, child, instance, provider, null, injectAnnotation);
+        }
+    }
+
+    /**
+     * Release a reference of the instance from the provider. When the instance is not held by
+     * the provider any more, the arguments of its {@link Inject} constructor are released too.
+     * @param owner The owner the instance is retained for or null if it's retained without owner
+     * @param field The field of the owner holding the instance
+     */
+    private void releaseReference(Context context, Provider<?> provider, Object instance,
+                                  Object owner, Field field) throws ProviderMissingException {
+        forgetParentReference(provider, instance, owner, field);
+        releaseProviderReference(context, provider, instance, owner, field);
+    }
+
+    private void releaseProviderReference(Context context, Provider<?> provider, Object instance,
+                                          Object owner, Field field) throws ProviderMissingException {
+        boolean dropped;
+        synchronized (provider) {
+            if (owner == null) {
+                provider.release();
+            } else {
+                provider.release(owner, field);
+            }
+            dropped = checkToFreeProvider(context, provider) || provider.scopeCache == null;
+        }
+
+        if (dropped) {
+            releaseConstructorArguments(context, provider, instance);
+        }
+
+        if (provider.scopeCache != null) {
+            freeEvicted(context, provider.scopeCache);
+        }
+
+        if (disposalGracePeriodNanos > 0) {
+            disposeDeferred(true);
+        }
+    }
+
+    /**
+     * Release the arguments of the {@link Inject} constructor the dropped instance was created by
+     */
+    private void releaseConstructorArguments(Context context, Provider<?> provider, Object instance)
+            throws ProviderMissingException {
+        if (provider instanceof ProviderByClassType) {
+            ProviderByClassType<?> byClassType = (ProviderByClassType) provider;
+            if (byClassType.parameterKeys.length > 0) {
+                ProviderByClassType.Arguments arguments;
+                synchronized (provider) {
+                    arguments = byClassType.constructorArguments.remove(instance);
+                }
+                if (arguments != null) {
+                    releaseArguments(context, byClassType, arguments, arguments.values.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Free idle instances the scope cache has given up unless they are injected again meanwhile
+     */
+    private void freeEvicted(Context context, ScopeCache scopeCache)
+            throws ProviderMissingException {
+        ScopeCache.CachedItem<?> item;
+        while ((item = scopeCache.pollEvicted()) != null) {
+            Provider<?> provider = item.provider;
+            boolean freed = false;
+            synchronized (provider) {
+                if (provider.getReferenceCount() == 0 && scopeCache.isIdle(item)) {
+                    notifyFreed(provider);
+                    provider.freeCache();
+                    freed = true;
+                }
+            }
+            if (freed) {
+                releaseConstructorArguments(context, provider, item.instance);
+            }
+        }
+    }
+
+    /**
+     * Reference the arguments of the {@link Inject} constructor of the provider like
+     * {@link #reference(Class, Annotation, Class)} does
+     */
+    private ProviderByClassType.Arguments provideArguments(Context context,
+                                                          ProviderByClassType<?> provider)
+            throws ProvideException {
+        ProviderKey key = provider.key();
+        if (recordVisit(context, provider)) {
+            //The instance is being constructed up the stack so it can never be provided
+            try {
+                throwCircularDependenciesException(context);
+            } catch (CircularDependenciesException e) {
+                throw new ProvideException(e.getMessage(), e);
+            }
+        }
+
+        //Arguments are released along with the instance constructed rather than its owner
+        Receipt receipt = context.receipt;
+        context.receipt = null;
+        ProviderKey[] keys = provider.parameterKeys;
+        ProviderByClassType.Arguments arguments = new ProviderByClassType.Arguments(keys.length);
+        arguments.injectAnnotation = context.injectAnnotation;
+        int provided = 0;
+        int depth = context.depth;
+        try {
+            for (; provided < keys.length; provided++) {
+                Provider<?> argumentProvider = getProvider(context, keys[provided]);
+                Object argument;
+                boolean firstTimeInject;
+                synchronized (argumentProvider) {
+                    argument = argumentProvider.get();
+                    argumentProvider.retain();
+                    firstTimeInject = argumentProvider.getReferenceCount() == 1;
+                }
+                arguments.providers[provided] = argumentProvider;
+                arguments.values[provided] = argument;
+
+                context.depth = depth + 1;
+                doInject(context, argument, argumentProvider, context.injectAnnotation);
+                context.depth = depth;
+
+                if (firstTimeInject) {
+                    notifyInjected(argumentProvider, argument);
+                }
+            }
+            return arguments;
+        } catch (PokeException e) {
+            context.depth = depth;
+            try {
+                releaseArguments(context, provider, arguments, provided);
+            } catch (ProviderMissingException releaseError) {
+                //Report the original error
+            }
+            if (e instanceof ProvideException) {
+                throw (ProvideException) e;
+            }
+            throw new ProvideException(String.format("Failed to provide arguments of the " +
+                    "constructor of %s: %s", key, e.getMessage()), e);
+        } finally {
+            context.receipt = receipt;
+            unrecordVisit(context, provider);
+        }
+    }
+
+    /**
+     * Release the given number of arguments referenced by
+     * {@link #provideArguments(Context, ProviderByClassType)} in reversed order
+     */
+    private void releaseArguments(Context context, ProviderByClassType<?> provider,
+                                  ProviderByClassType.Arguments arguments, int count)
+            throws ProviderMissingException {
+        for (int i = count - 1; i >= 0; i--) {
+            Object argument = arguments.values[i];
+            doRelease(context, argument, arguments.providers[i], arguments.injectAnnotation);
+            releaseReference(context, arguments.providers[i], argument, null, null);
+        }
+    }
+
+    /**
+     * Find the compiled entry to inject or release the target with when the graph is compiled for
+     * the inject annotation.
+     * @return The entry of a root target, an acyclic entry of a nested target or null when the
+     * target has to be traversed with circular dependency tracking
+     */
+    private CompiledGraph.Entry findCompiledEntry(Object target, Provider<?> targetProvider,
+                                                  Class<? extends Annotation> injectAnnotation) {
+        CompiledGraph compiled = compiledGraph;
+        if (compiled == null || compiled.injectAnnotation != injectAnnotation || target == null) {
+            return null;
+        }
+        if (targetProvider == null) {
+            return compiled.rootEntry(target.getClass());
+        }
+        CompiledGraph.Entry entry = compiled.entry(target.getClass());
+        return isCompiledAcyclic(entry, target) ? entry : null;
+    }
+
+    /**
+     * Whether the instance can be traversed by the given compiled entry without circular
+     * dependency tracking. Providers may create subclasses of the class known at compile time
+     * whose dependencies were not compiled.
+     */
+    private static boolean isCompiledAcyclic(CompiledGraph.Entry entry, Object instance) {
+        return entry != null && entry.acyclic && entry.type == instance.getClass();
+    }
+
+    /**
+     * Freeze the graph with the compiled dependency table
+     * @param compiledGraph The compiled dependency table
+     */
+    void setCompiledGraph(CompiledGraph compiledGraph) {
+        this.compiledGraph = compiledGraph;
+    }
+
+    boolean isCompiled() {
+        return compiledGraph != null;
+    }
+
+    /**
+     * Free the cached instance of the provider when it's not referenced any more unless its scope
+     * cache retains it as an idle instance
+     * @return Whether the instance is freed
+     */
+    private boolean checkToFreeProvider(Context context, Provider<?> provider) {
+        if (provider.getReferenceCount() == 0 && !provider.keepIdle()) {
+            long gracePeriod = disposalGracePeriodNanos;
+            if (gracePeriod > 0 && provider.scopeCache != null) {
+                synchronized (deferredDisposals) {
+                    //Re-insert to keep the map ordered by deadlines
+                    deferredDisposals.remove(provider);
+                    deferredDisposals.put(provider, new DeferredDisposal(nanoTime() + gracePeriod,
+                            context.injectAnnotation));
+                }
+                return false;
+            }
+            notifyFreed(provider);
+            provider.freeCache();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Free instances whose disposal is deferred unless they are referenced again
+     * @param expiredOnly Whether to free only instances whose grace period has passed
+     */
+    private void disposeDeferred(boolean expiredOnly) throws ProviderMissingException {
+        long now = nanoTime();
+        while (true) {
+            Provider<?> provider;
+            synchronized (deferredDisposals) {
+                if (deferredDisposals.isEmpty()) {
+                    return;
+                }
+                Map.Entry<Provider<?>, DeferredDisposal> eldest =
+                        deferredDisposals.entrySet().iterator().next();
+                if (expiredOnly && eldest.getValue().deadline - now > 0) {
+                    return;
+                }
+                provider = eldest.getKey();
+            }
+
+            DeferredDisposal disposal;
+            Object instance = null;
+            boolean freed = false;
+            synchronized (provider) {
+                synchronized (deferredDisposals) {
+                    disposal = deferredDisposals.remove(provider);
+                }
+                if (disposal != null && provider.getReferenceCount() == 0) {
+                    instance = provider.findCachedInstance();
+                    notifyFreed(provider);
+                    provider.freeCache();
+                    freed = true;
+                }
+            }
+
+            if (freed && instance != null) {
+                Context context = obtainContext(disposal.injectAnnotation);
+                try {
+                    releaseConstructorArguments(context, provider, instance);
+                } finally {
+                    recycleContext(context);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call {@link Provider#notifyInjected(Object)} with an instance provided by the provider
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void notifyInjected(Provider<T> provider, Object instance) {
+        provider.notifyInjected((T) instance);
+    }
+
+    /**
+     * @return Current time in nanoseconds to schedule deferred disposals
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void notifyFreed(Provider<?> provider) {
+        if (onProviderFreedListeners != null) {
+            int listenerSize = onProviderFreedListeners.size();
+            for (int k = 0; k < listenerSize; k++) {
+                onProviderFreedListeners.get(k).onFreed(provider);
+            }
+        }
+        if (parent != null) {
+            parent.notifyFreed(provider);
+        }
+    }
+
+    private void recordParentReference(Context context, Provider<?> provider, Object instance,
+                                       Object owner, Field field) {
+        if (parent != null && parentProviders.contains(provider)) {
+            synchronized (parentReferences) {
+                List<ParentReference> references = parentReferences.get(provider);
+                if (references == null) {
+                    references = new ArrayList<>();
+                    parentReferences.put(provider, references);
+                }
+                references.add(new ParentReference(instance, owner, field,
+                        context.injectAnnotation));
+            }
+        }
+    }
+
+    private void forgetParentReference(Provider<?> provider, Object instance, Object owner,
+                                       Field field) {
+        if (parent != null && parentProviders.contains(provider)) {
+            synchronized (parentReferences) {
+                List<ParentReference> references = parentReferences.get(provider);
+                if (references != null) {
+                    for (int i = references.size() - 1; i >= 0; i--) {
+                        ParentReference reference = references.get(i);
+                        if (reference.instance == instance && reference.owner == owner
+                                && (field == null || field.equals(reference.field))) {
+                            references.remove(i);
+                            break;
+                        }
+                    }
+                    if (references.isEmpty()) {
+                        parentReferences.remove(provider);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tear down this child graph at once. Instances cached by the given scope cache of the child
+     * are freed and references the child holds on providers of the parent are released without
+     * walking the fields of injected objects.
+     * @param scopeCache The scope cache owned by the child
+     */
+    void disposeChild(ScopeCache scopeCache) throws ProviderMissingException {
+        if (parent == null) {
+            throw new IllegalStateException("Only child graphs can be disposed");
+        }
+        parent.children.remove(this);
+        if (providerFinders != null) {
+            for (ProviderFinder providerFinder : providerFinders) {
+                if (providerFinder instanceof ProviderFinderByRegistry) {
+                    ((ProviderFinderByRegistry) providerFinder)
+                            .unregisterOnChangedListener(registryChangedListener);
+                }
+            }
+        }
+        disposeDeferred(false);
+        synchronized (receipts) {
+            receipts.clear();
+        }
+
+        //Arguments of constructors are held by the instances rather than recorded as references
+        //of the child, so they are released along with the instances
+        for (ScopeCache.CachedItem<?> item : new ArrayList<>(scopeCache.getCachedItems())) {
+            Provider<?> provider = item.provider;
+            synchronized (provider) {
+                notifyFreed(provider);
+                provider.freeCache();
+            }
+            Context context = obtainContext(null);
+            try {
+                releaseConstructorArguments(context, provider, item.instance);
+            } finally {
+                recycleContext(context);
+            }
+        }
+
+        List<Map.Entry<Provider<?>, List<ParentReference>>> references;
+        synchronized (parentReferences) {
+            references = new ArrayList<>(parentReferences.entrySet());
+            parentReferences.clear();
+        }
+        for (Map.Entry<Provider<?>, List<ParentReference>> entry : references) {
+            for (ParentReference reference : entry.getValue()) {
+                parent.releaseChildReference(entry.getKey(), reference);
+            }
+        }
+    }
+
+    private void releaseChildReference(Provider<?> provider, ParentReference reference)
+            throws ProviderMissingException {
+        Context context = obtainContext(reference.injectAnnotation);
+        try {
+            //The reference is recorded by the child rather than this graph
+            releaseProviderReference(context, provider, reference.instance, reference.owner,
+                    reference.field);
+        } finally {
+            recycleContext(context);
+        }
+    }
+
+    /**
+     * Mark the provider visited down the current path
+     * @return Whether the provider has been visited down the path already
+     */
+    private static boolean recordVisit(Context context, Provider<?> provider) {
+        int word = provider.id >>> 6;
+        long bit = 1L << provider.id;
+        long[] visited = context.visitedIds;
+        if (word >= visited.length) {
+            visited = Arrays.copyOf(visited, Math.max(word + 1, visited.length * 2));
+            context.visitedIds = visited;
+        }
+        if ((visited[word] & bit) != 0) {
+            context.revisitedNode = provider;
+            return true;
+        }
+
+        visited[word] |= bit;
+        if (context.visitDepth == context.visitPath.length) {
+            context.visitPath = Arrays.copyOf(context.visitPath, context.visitDepth * 2);
+        }
+        context.visitPath[context.visitDepth++] = provider;
+        return false;
+    }
+
+    /**
+     * Unmark the provider visited. It's usually the last one on the path unless the traversal
+     * down the path failed.
+     */
+    private static void unrecordVisit(Context context, Provider<?> provider) {
+        context.visitedIds[provider.id >>> 6] &= ~(1L << provider.id);
+        Provider<?>[] path = context.visitPath;
+        for (int i = context.visitDepth - 1; i >= 0; i--) {
+            if (path[i] == provider) {
+                System.arraycopy(path, i + 1, path, i, context.visitDepth - i - 1);
+                path[--context.visitDepth] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the cached {@link InjectionPlan} of the given class or build and cache it on first use
+     * @param clazz The class of the object to inject or release
+     * @param injectAnnotation The annotation marking injectable fields
+     * @return The plan
+     */
+    InjectionPlan getInjectionPlan(Class<?> clazz, Class<? extends Annotation> injectAnnotation) {
+        Map<Class<?>, InjectionPlan> plans = injectionPlans.get(injectAnnotation);
+        if (plans == null) {
+            plans = new ConcurrentHashMap<>();
+            injectionPlans.put(injectAnnotation, plans);
+        }
+        InjectionPlan plan = plans.get(clazz);
+        if (plan == null) {
+            //Racing threads may build the same plan twice which is harmless
+            plan = InjectionPlan.build(clazz, injectAnnotation);
+            plans.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    private Provider<?> getProvider(Context context, ProviderKey key) throws ProviderMissingException {
+        if (context.batchProviders == null) {
+            return getProvider(key);
+        }
+        Provider<?> provider = context.batchProviders.get(key);
+        if (provider == null) {
+            provider = getProvider(key);
+            context.batchProviders.put(key, provider);
+        }
+        return provider;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> Provider<T> getProvider(Class<T> type, Annotation qualifier) throws ProviderMissingException {
+        return (Provider<T>) getProvider(new ProviderKey(type, qualifier));
+    }
+
+    Provider<?> getProvider(ProviderKey key) throws ProviderMissingException {
+        Provider<?> provider = resolvedProviders.get(key);
+        if (provider != null) {
+            return provider;
+        }
+
+        int revision = resolvedProvidersRevision.get();
+        Class<?> type = key.type();
+        Annotation qualifier = key.qualifier();
+        int count = providerFinders.size();
+        for (int i = 0; i < count; i++) {
+            provider = providerFinders.get(i).findProvider(type, qualifier);
+            if (provider != null) {
+                break;
+            }
+        }
+
+        if (provider == null && parent != null) {
+            try {
+                provider = parent.getProvider(key);
+                parentProviders.add(provider);
+            } catch (ProviderMissingException e) {
+                //Reported below against this graph
             }
-        } else {
-            provider = providerFinder.findProvider(type, qualifier);
         }
 
         if (provider == null) {
             throw new ProviderMissingException(type, qualifier);
         }
 
+        resolvedProviders.put(key, provider);
+        if (revision != resolvedProvidersRevision.get()) {
+            //Bindings changed while resolving, the provider may be stale
+            resolvedProviders.remove(key);
+        }
         return provider;
     }
 
@@ -548,23 +1962,80 @@ public abstract class Graph {
      * Print readable circular graph
      * @throws CircularDependenciesException
      */
-    private void throwCircularDependenciesException()
+    private void throwCircularDependenciesException(Context context)
             throws CircularDependenciesException {
         String msg = "Circular dependencies found. Check the circular graph below:\n";
         boolean firstNode = true;
         String tab = "  ";
-        for (String visit : visitedInjectNodes) {
+        for (int i = 0; i < context.visitDepth; i++) {
             if (!firstNode) {
                 msg += tab + "->";
                 tab += tab;
             }
-            msg += visit + "\n";
+            msg += context.visitPath[i].key() + "\n";
             firstNode = false;
         }
-        msg += tab.substring(2) + "->" + revisitedNode + "\n";
+        msg += tab.substring(2) + "->" + context.revisitedNode.key() + "\n";
         throw new CircularDependenciesException(msg);
     }
 
+    /**
+     * Handle set to fields declared as {@link Lazy} or {@link javax.inject.Provider}. The instance
+     * is provided on the first {@link #get()} and retained once for the field no matter how many
+     * times the owner is injected.
+     */
+    private final class LazyInstance<T> implements Lazy<T>, javax.inject.Provider<T> {
+        private final Object owner;
+        private final InjectionPlan.Site site;
+        private final Provider<T> provider;
+        private final Class<? extends Annotation> injectAnnotation;
+        /**
+         * How many times the owner is injected and not released yet. Guarded by the handle.
+         */
+        private int injections = 1;
+        private volatile T instance;
+
+        private LazyInstance(Object owner, InjectionPlan.Site site, Provider<T> provider,
+                             Class<? extends Annotation> injectAnnotation) {
+            this.owner = owner;
+            this.site = site;
+            this.provider = provider;
+            this.injectAnnotation = injectAnnotation;
+        }
+
+        private Graph graph() {
+            return Graph.this;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+            T result = instance;
+            if (result != null) {
+                return result;
+            }
+            synchronized (this) {
+                if (instance == null) {
+                    if (injections == 0) {
+                        throw new IllegalStateException(String.format("Can't get %s lazily " +
+                                "since %s has been released", site.key, owner.getClass().getName()));
+                    }
+                    Context context = obtainContext(injectAnnotation);
+                    try {
+                        instance = (T) provideLazySite(context, owner, site, provider,
+                                injectAnnotation);
+                    } catch (PokeException e) {
+                        throw new IllegalStateException(String.format("Failed to provide %s " +
+                                "lazily: %s", site.key, e.getMessage()), e);
+                    } finally {
+                        recycleContext(context);
+                    }
+                }
+                return instance;
+            }
+        }
+    }
+
     /**
      * Monitor to watch when the graph is about to inject or release an object
      */
@@ -582,4 +2053,79 @@ public abstract class Graph {
         void onRelease(Object target);
     }
 
+    /**
+     * {@link Monitor} with finer grained hooks into how each injectable field is served. All hooks
+     * do nothing by default so subclasses only override what they need. Hooks are called on the
+     * injecting thread, some of them while the provider is locked, so they should be quick.
+     * <p>Depth is 0 for an instance referenced by {@link #reference(Class, Annotation, Class)},
+     * 1 for fields of a root target and increments for nested fields.</p>
+     * <p>{@link InjectionStatsCollector} is a ready made implementation.</p>
+     */
+    public static abstract class DetailedMonitor implements Monitor {
+        @Override
+        public void onInject(Object target) {
+        }
+
+        @Override
+        public void onRelease(Object target) {
+        }
+
+        /**
+         * Called when the provider of an injectable field is resolved
+         * @param provider The provider
+         * @param depth The depth of the field
+         */
+        public void onProviderResolved(Provider<?> provider, int depth) {
+        }
+
+        /**
+         * Called when the instance of a scoped provider is found in its {@link ScopeCache}
+         * @param provider The provider
+         * @param instance The cached instance
+         * @param depth The depth of the field
+         */
+        public void onCacheHit(Provider<?> provider, Object instance, int depth) {
+        }
+
+        /**
+         * Called when the instance of a scoped provider is not cached yet so it's about to be
+         * created
+         * @param provider The provider
+         * @param depth The depth of the field
+         */
+        public void onCacheMiss(Provider<?> provider, int depth) {
+        }
+
+        /**
+         * Called before the provider creates a new instance
+         * @param provider The provider
+         * @param depth The depth of the field
+         */
+        public void onCreateInstanceStart(Provider<?> provider, int depth) {
+        }
+
+        /**
+         * Called after the provider created a new instance
+         * @param provider The provider
+         * @param instance The new instance
+         * @param depth The depth of the field
+         * @param elapsedNanos Time spent on creating the instance
+         */
+        public void onCreateInstanceEnd(Provider<?> provider, Object instance, int depth,
+                                        long elapsedNanos) {
+        }
+
+        /**
+         * Called when an instance of the provider is injected including all its nested fields
+         * @param provider The provider
+         * @param instance The injected instance
+         * @param depth The depth of the field
+         * @param elapsedNanos Time spent on resolving, getting the instance and injecting its
+         *                     nested fields
+         */
+        public void onProviderInjected(Provider<?> provider, Object instance, int depth,
+                                       long elapsedNanos) {
+        }
+    }
+
 }
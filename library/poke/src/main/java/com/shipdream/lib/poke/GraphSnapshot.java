@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point in time view of the providers of a {@link Graph} with their reference counts, the owners
+ * referencing their instances and their cached instances, taken by {@link Graph#snapshot()}.
+ * Instances are described by their class names and identity hash codes rather than held, so a
+ * snapshot doesn't keep anything from being freed. It can be exported as JSON by
+ * {@link #toJson()} or as Graphviz DOT by {@link #toDot()}.
+ */
+public final class GraphSnapshot {
+    //Sizes of a 32 bit VM or a 64 bit VM with compressed references
+    private static final int OBJECT_HEADER_SIZE = 12;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int ALIGNMENT = 8;
+    private static final Map<Class<?>, Long> shallowSizes = new HashMap<>();
+
+    /**
+     * Snapshot of a provider
+     */
+    public static final class ProviderNode {
+        private final Class<?> type;
+        private final Annotation qualifier;
+        private final String scope;
+        private final int referenceCount;
+        private final boolean idle;
+        private final String cachedInstance;
+        private final long shallowSize;
+        private final List<Owner> owners;
+
+        private ProviderNode(Class<?> type, Annotation qualifier, String scope, int referenceCount,
+                             boolean idle, String cachedInstance, long shallowSize,
+                             List<Owner> owners) {
+            this.type = type;
+            this.qualifier = qualifier;
+            this.scope = scope;
+            this.referenceCount = referenceCount;
+            this.idle = idle;
+            this.cachedInstance = cachedInstance;
+            this.shallowSize = shallowSize;
+            this.owners = owners;
+        }
+
+        /**
+         * @return The type the provider provides
+         */
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * @return The qualifier of the provider or null if it's not qualified
+         */
+        public Annotation getQualifier() {
+            return qualifier;
+        }
+
+        /**
+         * @return The simple class name of the {@link ScopeCache} of the provider or null if the
+         * provider is not scoped
+         */
+        public String getScope() {
+            return scope;
+        }
+
+        /**
+         * @return The reference count of the provider, see {@link Provider#getReferenceCount()}
+         */
+        public int getReferenceCount() {
+            return referenceCount;
+        }
+
+        /**
+         * @return Whether the cached instance is no longer referenced but kept by its cache
+         */
+        public boolean isIdle() {
+            return idle;
+        }
+
+        /**
+         * @return The class name and identity hash code of the cached instance or null if nothing
+         * is cached
+         */
+        public String getCachedInstance() {
+            return cachedInstance;
+        }
+
+        /**
+         * @return Estimated shallow size in bytes of the cached instance or 0 if nothing is cached
+         */
+        public long getShallowSize() {
+            return shallowSize;
+        }
+
+        /**
+         * @return The owners whose fields reference the instance of the provider
+         */
+        public List<Owner> getOwners() {
+            return owners;
+        }
+    }
+
+    /**
+     * Object referencing the instance of a provider by its fields
+     */
+    public static final class Owner {
+        private final String instance;
+        private final Map<String, Integer> fieldReferences;
+
+        private Owner(String instance, Map<String, Integer> fieldReferences) {
+            this.instance = instance;
+            this.fieldReferences = fieldReferences;
+        }
+
+        /**
+         * @return The class name and identity hash code of the owner
+         */
+        public String getInstance() {
+            return instance;
+        }
+
+        /**
+         * @return The reference counts by the names of the fields of the owner
+         */
+        public Map<String, Integer> getFieldReferences() {
+            return fieldReferences;
+        }
+    }
+
+    private final List<ProviderNode> providers;
+
+    private GraphSnapshot(List<ProviderNode> providers) {
+        this.providers = providers;
+    }
+
+    /**
+     * @return The snapshots of the providers
+     */
+    public List<ProviderNode> getProviders() {
+        return providers;
+    }
+
+    /**
+     * @return Estimated shallow size in bytes of all cached instances
+     */
+    public long getCachedSize() {
+        long size = 0;
+        for (ProviderNode provider : providers) {
+            size += provider.shallowSize;
+        }
+        return size;
+    }
+
+    static GraphSnapshot take(Collection<Provider<?>> providers) {
+        List<ProviderNode> nodes = new ArrayList<>(providers.size());
+        for (Provider<?> provider : providers) {
+            nodes.add(takeProvider(provider));
+        }
+        return new GraphSnapshot(Collections.unmodifiableList(nodes));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ProviderNode takeProvider(Provider<?> provider) {
+        List<Owner> owners = new ArrayList<>();
+        int referenceCount;
+        Object instance = null;
+        boolean idle = false;
+        ScopeCache scopeCache;
+        synchronized (provider) {
+            referenceCount = provider.getReferenceCount();
+            for (Object entry : provider.owners.entrySet()) {
+                Map.Entry<Object, Provider.FieldReferences> owner
+                        = (Map.Entry<Object, Provider.FieldReferences>) entry;
+                Provider.FieldReferences references = owner.getValue();
+                Map<String, Integer> fieldReferences = new LinkedHashMap<>();
+                for (int i = 0; i < references.size(); i++) {
+                    fieldReferences.put(references.fieldAt(i).getName(), references.countAt(i));
+                }
+                owners.add(new Owner(describe(owner.getKey()),
+                        Collections.unmodifiableMap(fieldReferences)));
+            }
+            scopeCache = provider.scopeCache;
+            if (scopeCache != null) {
+                ScopeCache.CachedItem<?> item = scopeCache.findCacheItem(provider.key());
+                if (item != null) {
+                    instance = item.instance;
+                    idle = scopeCache.isIdle(item);
+                }
+            }
+        }
+
+        return new ProviderNode(provider.type(), provider.getQualifier(),
+                scopeCache == null ? null : scopeCache.getClass().getSimpleName(),
+                referenceCount, idle, instance == null ? null : describe(instance),
+                instance == null ? 0 : estimateShallowSize(instance.getClass()),
+                Collections.unmodifiableList(owners));
+    }
+
+    private static String describe(Object instance) {
+        return instance.getClass().getName() + "@"
+                + Integer.toHexString(System.identityHashCode(instance));
+    }
+
+    /**
+     * Estimate the size of an instance of the class by the header and instance fields declared
+     * by the class and its super classes, aligned to 8 bytes
+     */
+    private static long estimateShallowSize(Class<?> clazz) {
+        synchronized (shallowSizes) {
+            Long cached = shallowSizes.get(clazz);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long size = OBJECT_HEADER_SIZE;
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += fieldSize(field.getType());
+                }
+            }
+        }
+        size = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        synchronized (shallowSizes) {
+            shallowSizes.put(clazz, size);
+        }
+        return size;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    /**
+     * Export the snapshot as JSON of the form
+     * <pre>
+     * {"providers":[{"type":"pkg.Contract","qualifier":null,"scope":"ScopeCache",
+     *   "referenceCount":1,"idle":false,"cachedInstance":"pkg.internal.ContractImpl@1b6d3586",
+     *   "shallowSize":16,"owners":[{"instance":"pkg.Owner@4554617c","fields":{"contract":1}}]}]}
+     * </pre>
+     * @return The JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"providers\":[");
+        for (int i = 0; i < providers.size(); i++) {
+            ProviderNode provider = providers.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":");
+            appendJsonString(json, provider.type.getName());
+            json.append(",\"qualifier\":");
+            appendJsonString(json, provider.qualifier == null ? null : provider.qualifier.toString());
+            json.append(",\"scope\":");
+            appendJsonString(json, provider.scope);
+            json.append(",\"referenceCount\":").append(provider.referenceCount);
+            json.append(",\"idle\":").append(provider.idle);
+            json.append(",\"cachedInstance\":");
+            appendJsonString(json, provider.cachedInstance);
+            json.append(",\"shallowSize\":").append(provider.shallowSize);
+            json.append(",\"owners\":[");
+            for (int j = 0; j < provider.owners.size(); j++) {
+                Owner owner = provider.owners.get(j);
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append("{\"instance\":");
+                appendJsonString(json, owner.instance);
+                json.append(",\"fields\":{");
+                boolean first = true;
+                for (Map.Entry<String, Integer> field : owner.fieldReferences.entrySet()) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    appendJsonString(json, field.getKey());
+                    json.append(':').append(field.getValue());
+                    first = false;
+                }
+                json.append("}}");
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Export the snapshot as a Graphviz DOT digraph. Providers are nodes labeled with their
+     * bindings, scopes, reference counts and cached instances. Owners are linked to the providers
+     * they reference by edges labeled with their fields. Owners which are cached instances of
+     * other providers are linked from those providers, other owners get nodes of their own.
+     * @return The DOT source
+     */
+    public String toDot() {
+        Map<String, String> nodeIds = new HashMap<>();
+        for (int i = 0; i < providers.size(); i++) {
+            ProviderNode provider = providers.get(i);
+            if (provider.cachedInstance != null) {
+                nodeIds.put(provider.cachedInstance, "p" + i);
+            }
+        }
+
+        StringBuilder dot = new StringBuilder("digraph poke {\n");
+        for (int i = 0; i < providers.size(); i++) {
+            ProviderNode provider = providers.get(i);
+            String label = provider.type.getName()
+                    + (provider.qualifier == null ? "" : "\n" + provider.qualifier)
+                    + "\n" + (provider.scope == null ? "unscoped" : provider.scope)
+                    + " refs=" + provider.referenceCount + (provider.idle ? " idle" : "")
+                    + (provider.cachedInstance == null ? "" : "\n" + provider.cachedInstance);
+            dot.append("  p").append(i).append(" [label=");
+            appendDotString(dot, label);
+            dot.append("];\n");
+        }
+
+        for (int i = 0; i < providers.size(); i++) {
+            for (Owner owner : providers.get(i).owners) {
+                String ownerId = nodeIds.get(owner.instance);
+                if (ownerId == null) {
+                    ownerId = "o" + nodeIds.size();
+                    nodeIds.put(owner.instance, ownerId);
+                    dot.append("  ").append(ownerId).append(" [shape=box, label=");
+                    appendDotString(dot, owner.instance);
+                    dot.append("];\n");
+                }
+                for (Map.Entry<String, Integer> field : owner.fieldReferences.entrySet()) {
+                    dot.append("  ").append(ownerId).append(" -> p").append(i).append(" [label=");
+                    appendDotString(dot, field.getValue() > 1
+                            ? field.getKey() + " x" + field.getValue() : field.getKey());
+                    dot.append("];\n");
+                }
+            }
+        }
+        return dot.append("}\n").toString();
+    }
+
+    private static void appendDotString(StringBuilder dot, String value) {
+        dot.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                dot.append('\\').append(c);
+            } else if (c == '\n') {
+                dot.append("\\n");
+            } else {
+                dot.append(c);
+            }
+        }
+        dot.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -16,8 +16,33 @@
 
 package com.shipdream.lib.poke;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Locates the implementation of a contract <code>pkg.Contract</code> as
+ * <code>pkg.internal.ContractImpl</code>. Contracts are first looked up in the index generated by
+ * poke-compiler, a resource per contract under {@link #INDEX_DIRECTORY}. Contracts missing from
+ * the index fall back to the naming pattern. Both found and missing implementations are cached, so
+ * a contract is resolved by {@link Class#forName(String)} at most once.
+ */
 public class ImplClassLocatorByPattern extends ImplClassLocator {
+    /**
+     * Class path directory of the index. The implementation class of a contract is indexed by a
+     * resource named by the binary name of the contract, holding the binary name of the class. As
+     * with <code>META-INF/services</code>, every module writes its own resources, so the indexes
+     * of several modules don't clash when they are packaged together.
+     */
+    public static final String INDEX_DIRECTORY = "META-INF/poke/impl-classes/";
+    private static final Object NOT_FOUND = new Object();
+
     private final ScopeCache scopeCache;
+    private final ClassLoader indexLoader;
+    private final ConcurrentMap<Class<?>, Object> located = new ConcurrentHashMap<>();
 
     /**
      * Construct class locator without scope cache thus all instances will be created on each
@@ -32,22 +57,85 @@ public class ImplClassLocatorByPattern extends ImplClassLocator {
      * @param scopeCache
      */
     public ImplClassLocatorByPattern(ScopeCache scopeCache) {
+        this(scopeCache, ImplClassLocatorByPattern.class.getClassLoader());
+    }
+
+    /**
+     * Construct class locator with given scope cache reading the indexes from the given class
+     * loader.
+     * @param scopeCache
+     * @param indexLoader The class loader to find the resources under {@link #INDEX_DIRECTORY}
+     *                    and the classes they name by
+     */
+    public ImplClassLocatorByPattern(ScopeCache scopeCache, ClassLoader indexLoader) {
         this.scopeCache = scopeCache;
+        this.indexLoader = indexLoader;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <T, S extends T> Class<S> locateImpl(Class<T> contract) throws ImplClassNotFoundException {
+        Object impl = located.get(contract);
+        if (impl == null) {
+            try {
+                impl = findImpl(contract);
+            } catch (ClassNotFoundException e) {
+                located.putIfAbsent(contract, NOT_FOUND);
+                throw new ImplClassNotFoundException("Can't find implementation class for " + contract.getName(), e);
+            }
+            located.putIfAbsent(contract, impl);
+        }
+
+        if (impl == NOT_FOUND) {
+            throw new ImplClassNotFoundException("Can't find implementation class for " + contract.getName(), null);
+        }
+        return (Class<S>) impl;
+    }
+
+    private Class<?> findImpl(Class<?> contract) throws ClassNotFoundException {
+        String indexed = readIndex(contract);
+        if (indexed != null) {
+            try {
+                return Class.forName(indexed, true, indexLoader);
+            } catch (ClassNotFoundException e) {
+                //Stale index, try the pattern
+            }
+        }
+
         String pkg = contract.getPackage().getName();
         String implClassName = pkg + ".internal." + contract.getSimpleName() + "Impl";
-        try {
-            return (Class<S>) Class.forName(implClassName);
-        } catch (ClassNotFoundException e) {
-            throw new ImplClassNotFoundException("Can't find implementation class for " + contract.getName(), e);
-        }
+        return Class.forName(implClassName);
     }
 
     @Override
     public ScopeCache getScopeCache() {
         return scopeCache;
     }
+
+    /**
+     * Read the implementation class name indexed for the contract
+     * @return Null if the contract isn't indexed or the index can't be read, as the pattern still
+     * locates it
+     */
+    private String readIndex(Class<?> contract) {
+        if (indexLoader == null) {
+            return null;
+        }
+        InputStream in = indexLoader.getResourceAsStream(INDEX_DIRECTORY + contract.getName());
+        if (in == null) {
+            return null;
+        }
+        try {
+            String line = new BufferedReader(new InputStreamReader(in, "UTF-8")).readLine();
+            return line == null || line.trim().isEmpty() ? null : line.trim();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                //Nothing to do
+            }
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.util.ReflectUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable description of the injectable fields of a class for a given inject annotation.
+ * Walking the class hierarchy by reflection is expensive, so a plan is built once per class and
+ * inject annotation and reused by every injection and release of instances of that class. Fields
+ * declared by a class with a generated {@link PokeInjector} are accessed through the injector,
+ * other fields by reflection.
+ */
+final class InjectionPlan {
+    /**
+     * A field to inject with the type, qualifier and provider key resolved up front. The site also works as the
+     * accessor of the field. It either uses the generated {@link PokeInjector} or the field opened
+     * by reflection once when the site is created, instead of toggling the accessibility of the
+     * field on every access as {@link ReflectUtils#setField(Object, Field, Object)} does.
+     */
+    static final class Site {
+        final Field field;
+        /**
+         * The type to provide. For lazy sites it's the type argument of the field
+         */
+        final Class<?> type;
+        final Annotation qualifier;
+        final ProviderKey key;
+        /**
+         * Whether the field is declared as {@link Lazy} or {@link javax.inject.Provider} whose
+         * instance is provided on demand
+         */
+        final boolean lazy;
+        /**
+         * The generated injector accessing the field, or null if it's accessed by reflection
+         */
+        final PokeInjector<Object> injector;
+        private final int slot;
+
+        private Site(Field field, PokeInjector<Object> injector, int slot) {
+            this.field = field;
+            Class<?> fieldType = field.getType();
+            this.lazy = fieldType == Lazy.class || fieldType == javax.inject.Provider.class;
+            this.type = lazy ? lazyType(field) : fieldType;
+            this.qualifier = ReflectUtils.findFirstQualifier(field);
+            this.key = new ProviderKey(type, qualifier);
+            this.injector = injector;
+            this.slot = slot;
+            if (injector == null) {
+                field.setAccessible(true);
+            }
+        }
+
+        private static Class<?> lazyType(Field field) {
+            Type genericType = field.getGenericType();
+            if (genericType instanceof ParameterizedType) {
+                Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (argument instanceof Class<?>) {
+                    return (Class<?>) argument;
+                } else if (argument instanceof ParameterizedType) {
+                    return (Class<?>) ((ParameterizedType) argument).getRawType();
+                }
+            }
+            throw new IllegalArgumentException(String.format("Lazy field %s.%s must declare " +
+                    "the concrete type to inject, e.g. Lazy<Foo>",
+                    field.getDeclaringClass().getName(), field.getName()));
+        }
+
+        void set(Object target, Object value) {
+            if (injector != null) {
+                injector.set(target, slot, value);
+            } else {
+                try {
+                    field.set(target, value);
+                } catch (IllegalAccessException e) {
+                    //ignore should not happen as the field has been opened when the site is created
+                    e.printStackTrace(); // $COVERAGE-IGNORE$
+                }
+            }
+        }
+
+        Object get(Object target) {
+            if (injector != null) {
+                return injector.get(target, slot);
+            } else {
+                try {
+                    return field.get(target);
+                } catch (IllegalAccessException e) {
+                    //ignore should not happen as the field has been opened when the site is created
+                    e.printStackTrace(); // $COVERAGE-IGNORE$
+                    return null; // $COVERAGE-IGNORE$
+                }
+            }
+        }
+    }
+
+    final Site[] sites;
+
+    private InjectionPlan(Site[] sites) {
+        this.sites = sites;
+    }
+
+    /**
+     * Resolve the fields annotated by the given inject annotation declared by the class and all
+     * its super classes. Fields of the class come before the fields of its super classes.
+     *
+     * @param clazz The class to inspect
+     * @param injectAnnotation The annotation marking injectable fields
+     * @return The plan
+     */
+    static InjectionPlan build(Class<?> clazz, Class<? extends Annotation> injectAnnotation) {
+        List<Site> sites = new ArrayList<>();
+        while (clazz != null) {
+            PokeInjector<Object> injector = findGeneratedInjector(clazz, injectAnnotation);
+            List<String> slots = injector == null ? null : Arrays.asList(injector.fieldNames());
+            Field[] fields = clazz.getDeclaredFields();
+            for (Field field : fields) {
+                if (field.isAnnotationPresent(injectAnnotation)) {
+                    int slot = slots == null ? -1 : slots.indexOf(field.getName());
+                    //Fields unknown to a stale generated injector are still injected by reflection
+                    sites.add(new Site(field, slot < 0 ? null : injector, slot));
+                }
+            }
+            clazz = clazz.getSuperclass();
+        }
+        return new InjectionPlan(sites.toArray(new Site[sites.size()]));
+    }
+
+    /**
+     * Find the injector generated for the fields declared by the given class
+     * @param clazz The class declaring injectable fields
+     * @param injectAnnotation The annotation marking injectable fields
+     * @return Null if there is no generated injector for the class and inject annotation
+     */
+    @SuppressWarnings("unchecked")
+    private static PokeInjector<Object> findGeneratedInjector(Class<?> clazz,
+                                                              Class<? extends Annotation> injectAnnotation) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        if (classLoader == null) {
+            //Classes loaded by the bootstrap class loader are never processed
+            return null;
+        }
+        try {
+            Class<?> injectorClass = Class.forName(clazz.getName()
+                    + PokeInjector.CLASS_NAME_SUFFIX, true, classLoader);
+            PokeInjector<Object> injector = (PokeInjector<Object>) injectorClass.newInstance();
+            return injector.injectAnnotation() == injectAnnotation ? injector : null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (InstantiationException e) {
+            return null;  // $COVERAGE-IGNORE$
+        } catch (IllegalAccessException e) {
+            return null;  // $COVERAGE-IGNORE$
+        }
+    }
+}
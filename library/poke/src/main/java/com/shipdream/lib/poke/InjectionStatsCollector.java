@@ -0,0 +1,305 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link Graph.DetailedMonitor} collecting injection statistics per provided type. Counters and
+ * latency histograms are updated lock free so it's cheap enough to stay registered in debug
+ * builds on devices. It tells which controller or service makes injecting a screen slow without
+ * attaching a profiler.
+ * <pre>
+ * InjectionStatsCollector stats = new InjectionStatsCollector();
+ * graph.registerMonitor(stats);
+ * ...
+ * System.out.println(stats.report());
+ * </pre>
+ */
+public class InjectionStatsCollector extends Graph.DetailedMonitor {
+    /**
+     * Histogram of latencies with buckets by the power of 2 of nanoseconds, i.e. bucket n counts
+     * latencies in [2^(n-1), 2^n) nanoseconds.
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 64;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            //0 goes to bucket 0 as it has 64 leading zeros
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        /**
+         * @return How many latencies are recorded
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return Sum of all recorded latencies in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        /**
+         * @return The max recorded latency in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return The mean of recorded latencies in nanoseconds or 0 when nothing is recorded
+         */
+        public long getMeanNanos() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / n;
+        }
+
+        /**
+         * Estimate the latency at the given percentile by the upper bound of the bucket it falls
+         * into, capped by the max recorded latency
+         * @param percentile Between 0 and 100
+         * @return The estimated latency in nanoseconds or 0 when nothing is recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upperBound, maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        /**
+         * @return Counts of each bucket. Bucket n counts latencies in [2^(n-1), 2^n) nanoseconds
+         * and bucket 0 counts latencies of 0 nanoseconds.
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Statistics of a provided type
+     */
+    public static class Stats {
+        private final Class<?> type;
+        private final AtomicLong resolveCount = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong cacheMisses = new AtomicLong();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final Histogram creationLatency = new Histogram();
+        private final Histogram injectionLatency = new Histogram();
+
+        Stats(Class<?> type) {
+            this.type = type;
+        }
+
+        /**
+         * @return The type provided
+         */
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * @return How many times providers of the type are resolved to inject a field
+         */
+        public long getResolveCount() {
+            return resolveCount.get();
+        }
+
+        /**
+         * @return How many instances of the type are created
+         */
+        public long getCreationCount() {
+            return creationLatency.getCount();
+        }
+
+        /**
+         * @return How many times a scoped instance of the type is found in cache
+         */
+        public long getCacheHits() {
+            return cacheHits.get();
+        }
+
+        /**
+         * @return How many times a scoped instance of the type is not found in cache
+         */
+        public long getCacheMisses() {
+            return cacheMisses.get();
+        }
+
+        /**
+         * @return The deepest level the type is injected at
+         */
+        public int getMaxDepth() {
+            return maxDepth.get();
+        }
+
+        /**
+         * @return Latencies of creating instances of the type
+         */
+        public Histogram getCreationLatency() {
+            return creationLatency;
+        }
+
+        /**
+         * @return Latencies of injecting instances of the type including their nested fields
+         */
+        public Histogram getInjectionLatency() {
+            return injectionLatency;
+        }
+
+        private void recordDepth(int depth) {
+            int max = maxDepth.get();
+            while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+                max = maxDepth.get();
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<Class<?>, Stats> stats = new ConcurrentHashMap<>();
+
+    private Stats stats(Provider<?> provider) {
+        Class<?> type = provider.type();
+        Stats s = stats.get(type);
+        if (s == null) {
+            s = new Stats(type);
+            Stats existing = stats.putIfAbsent(type, s);
+            if (existing != null) {
+                s = existing;
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public void onProviderResolved(Provider<?> provider, int depth) {
+        Stats s = stats(provider);
+        s.resolveCount.incrementAndGet();
+        s.recordDepth(depth);
+    }
+
+    @Override
+    public void onCacheHit(Provider<?> provider, Object instance, int depth) {
+        stats(provider).cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void onCacheMiss(Provider<?> provider, int depth) {
+        stats(provider).cacheMisses.incrementAndGet();
+    }
+
+    @Override
+    public void onCreateInstanceEnd(Provider<?> provider, Object instance, int depth, long elapsedNanos) {
+        stats(provider).creationLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onProviderInjected(Provider<?> provider, Object instance, int depth, long elapsedNanos) {
+        stats(provider).injectionLatency.record(elapsedNanos);
+    }
+
+    /**
+     * Get statistics of the given type
+     * @param type The provided type
+     * @return The statistics or null if the type has not been injected
+     */
+    public Stats getStats(Class<?> type) {
+        return stats.get(type);
+    }
+
+    /**
+     * @return Statistics of all injected types
+     */
+    public Map<Class<?>, Stats> getAllStats() {
+        return new HashMap<>(stats);
+    }
+
+    /**
+     * Clear all collected statistics
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Readable report of all types ordered by their total injection time, slowest first
+     * @return The report
+     */
+    public String report() {
+        List<Stats> all = new ArrayList<>(stats.values());
+        Collections.sort(all, new Comparator<Stats>() {
+            @Override
+            public int compare(Stats a, Stats b) {
+                long ta = a.injectionLatency.getTotalNanos();
+                long tb = b.injectionLatency.getTotalNanos();
+                return ta < tb ? 1 : (ta == tb ? 0 : -1);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-48s %8s %8s %8s %6s %12s %12s %12s%n", "type", "resolved",
+                "created", "hits", "depth", "create avg", "inject avg", "inject p99"));
+        for (Stats s : all) {
+            sb.append(String.format("%-48s %8d %8d %8d %6d %10dns %10dns %10dns%n",
+                    s.type.getName(), s.getResolveCount(), s.getCreationCount(), s.getCacheHits(),
+                    s.getMaxDepth(), s.creationLatency.getMeanNanos(),
+                    s.injectionLatency.getMeanNanos(),
+                    s.injectionLatency.getPercentileNanos(99)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+/**
+ * Handle injected into fields declared as <code>Lazy&lt;T&gt;</code> to defer providing the
+ * instance until it's used. For example,
+ * <pre>
+ * class Screen {
+ *     &#64;Inject
+ *     private Lazy&lt;SettingsController&gt; settingsController;
+ *
+ *     void onSettingsMenuClicked() {
+ *         settingsController.get().open();
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>The instance is provided, retained and has its own dependencies injected on the first call
+ * of {@link #get()}. Later calls return the same instance. Releasing the owner of the field
+ * releases the instance only if it has been got. Fields declared as
+ * <code>javax.inject.Provider&lt;T&gt;</code> are injected with the same handle.</p>
+ *
+ * <p>{@link #get()} throws {@link IllegalStateException} if the instance can't be provided or the
+ * owner of the field has been released.</p>
+ *
+ * @param <T> The type of the instance
+ */
+public interface Lazy<T> {
+    /**
+     * Get the instance, providing it on the first call
+     * @return The instance
+     */
+    T get();
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+/**
+ * {@link ScopeCache} keeping at most a fixed number of idle instances. When more instances become
+ * idle, the least recently released ones are freed. Like other {@link RetainingScopeCache}s it
+ * only evicts when the graph releases an instance of this cache. That's also the only time an
+ * instance becomes idle, so no more than the max number are kept, but they are kept for as long as
+ * nothing of this cache is released, e.g. while the app is idle.
+ */
+public class LruScopeCache extends RetainingScopeCache {
+    private final int maxIdleSize;
+
+    /**
+     * @param maxIdleSize The max number of instances kept after they are not referenced
+     */
+    public LruScopeCache(int maxIdleSize) {
+        if (maxIdleSize < 0) {
+            throw new IllegalArgumentException("maxIdleSize must not be negative");
+        }
+        this.maxIdleSize = maxIdleSize;
+    }
+
+    @Override
+    protected boolean shouldEvict(CachedItem<?> eldest, int idleCount) {
+        return idleCount > maxIdleSize;
+    }
+}
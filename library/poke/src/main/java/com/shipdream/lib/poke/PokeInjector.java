@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Accessor of the injectable fields declared by a class, generated at compile time by the
+ * poke-compiler annotation processor. The generated class is named
+ * <code>&lt;binary name of target class&gt;_PokeInjector</code> and lives in the same package as
+ * the target class so it can assign and read the fields directly instead of by reflection.
+ *
+ * <p>{@link Graph} looks for the generated injector of every class in the hierarchy of an object
+ * it injects and falls back to reflection for classes without one. Reference counting, scopes and
+ * qualifiers work exactly the same either way.</p>
+ *
+ * @param <T> The type of the class declaring the injectable fields
+ */
+public abstract class PokeInjector<T> {
+    /**
+     * Suffix appended to the binary name of a class to get the name of its generated injector
+     */
+    public static final String CLASS_NAME_SUFFIX = "_PokeInjector";
+
+    /**
+     * @return The annotation marking the fields this injector handles
+     */
+    public abstract Class<? extends Annotation> injectAnnotation();
+
+    /**
+     * @return Names of the fields this injector handles. The index of a name is the slot of the
+     * field passed to {@link #set(Object, int, Object)} and {@link #get(Object, int)}
+     */
+    public abstract String[] fieldNames();
+
+    /**
+     * Assign the value to the field of the given slot
+     * @param target The object declaring the field
+     * @param slot The slot of the field
+     * @param value The value to assign
+     */
+    public abstract void set(T target, int slot, Object value);
+
+    /**
+     * Read the value of the field of the given slot
+     * @param target The object declaring the field
+     * @param slot The slot of the field
+     * @return The value of the field
+     */
+    public abstract Object get(T target, int slot);
+}
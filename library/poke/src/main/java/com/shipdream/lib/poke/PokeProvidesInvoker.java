@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+/**
+ * Invoker of the methods annotated by {@link Provides} declared by a {@link Component} class,
+ * generated at compile time by the poke-compiler annotation processor. The generated class is
+ * named <code>&lt;binary name of component class&gt;_PokeProvides</code> and lives in the same
+ * package as the component so it can call the methods directly instead of by reflection.
+ *
+ * <p>Components without a generated invoker, e.g. those declaring private provide methods, have
+ * their methods called by reflection.</p>
+ *
+ * @param <T> The type of the component
+ */
+public abstract class PokeProvidesInvoker<T extends Component> {
+    /**
+     * Suffix appended to the binary name of a component class to get the name of its generated
+     * invoker
+     */
+    public static final String CLASS_NAME_SUFFIX = "_PokeProvides";
+
+    /**
+     * @return Names of the methods this invoker calls. The index of a name is the slot of the
+     * method passed to {@link #provide(Component, int)}
+     */
+    public abstract String[] methodNames();
+
+    /**
+     * Call the provide method of the given slot
+     * @param component The component declaring the method
+     * @param slot The slot of the method
+     * @return The instance returned by the method
+     */
+    public abstract Object provide(T component, int slot);
+}
@@ -23,7 +23,8 @@ import com.shipdream.lib.poke.exception.ProviderMissingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -57,29 +58,102 @@ public abstract class Provider<T> {
         void onFreed(Provider provider);
     }
 
+    /**
+     * Small integer identifying the provider among the providers alive, e.g. for {@link Graph} to
+     * track the providers being visited by a bitset. See {@link ProviderIds}.
+     */
+    final int id = ProviderIds.acquire(this);
     private final Class<T> type;
     ScopeCache scopeCache;
     private Annotation qualifier;
+    private ProviderKey key;
 
-    Map<Object, Map<String, Integer>> owners = new HashMap<>();
-    private int totalRefCount = 0;
+    /**
+     * Reference counts of the fields of an owner holding the instance of this provider. An owner
+     * rarely has more than a few fields injected by the same provider, so fields and their counts
+     * are kept in small parallel arrays instead of a map.
+     */
+    static final class FieldReferences {
+        private Field[] fields = new Field[2];
+        private int[] counts = new int[2];
+        private int size;
+
+        private int indexOf(Field field) {
+            for (int i = 0; i < size; i++) {
+                Field f = fields[i];
+                //Field instances of the same field are not shared across class reflections
+                if (f == field || f.equals(field)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-    int getReferenceCount(Object owner, Field field) {
-        Map<String, Integer> fields = owners.get(owner);
-        if (fields != null) {
-            Integer count = fields.get(field.toGenericString());
-            if(count != null) {
-                return count;
+        int get(Field field) {
+            int index = indexOf(field);
+            return index < 0 ? 0 : counts[index];
+        }
+
+        void increment(Field field) {
+            int index = indexOf(field);
+            if (index < 0) {
+                if (size == fields.length) {
+                    fields = Arrays.copyOf(fields, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                index = size++;
+                fields[index] = field;
+            }
+            counts[index]++;
+        }
+
+        /**
+         * @return false if the field is not referenced
+         */
+        boolean decrement(Field field) {
+            int index = indexOf(field);
+            if (index < 0) {
+                return false;
             }
+            if (--counts[index] == 0) {
+                size--;
+                fields[index] = fields[size];
+                counts[index] = counts[size];
+                fields[size] = null;
+                counts[size] = 0;
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
 
+        int size() {
+            return size;
         }
-        return 0;
+
+        Field fieldAt(int index) {
+            return fields[index];
+        }
+
+        int countAt(int index) {
+            return counts[index];
+        }
+    }
+
+    Map<Object, FieldReferences> owners = new IdentityHashMap<>();
+    private volatile int totalRefCount = 0;
+
+    synchronized int getReferenceCount(Object owner, Field field) {
+        FieldReferences references = owners.get(owner);
+        return references == null ? 0 : references.get(field);
     }
 
     /**
      * Increase reference count.
      */
-    public void retain() {
+    public synchronized void retain() {
         totalRefCount++;
     }
 
@@ -88,27 +162,20 @@ public abstract class Provider<T> {
      * @param owner The owner of the field
      * @param field The field
      */
-    void retain(Object owner, Field field) {
+    synchronized void retain(Object owner, Field field) {
         retain();
-        Map<String, Integer> fields = owners.get(owner);
-        if (fields == null) {
-            fields = new HashMap<>();
-            owners.put(owner, fields);
-        }
-
-        Integer count = fields.get(field.toGenericString());
-        if (count == null) {
-            fields.put(field.toGenericString(), 1);
-        } else {
-            count++;
-            fields.put(field.toGenericString(), count);
+        FieldReferences references = owners.get(owner);
+        if (references == null) {
+            references = new FieldReferences();
+            owners.put(owner, references);
         }
+        references.increment(field);
     }
 
     /**
      * Decrease reference count.
      */
-    public void release() {
+    public synchronized void release() {
         totalRefCount--;
     }
 
@@ -117,33 +184,32 @@ public abstract class Provider<T> {
      * @param owner The owner of the field
      * @param field The field
      */
-    void release(Object owner, Field field) {
-        Map<String, Integer> fields = owners.get(owner);
-        if(fields != null) {
-            release();
-
-            Integer count = fields.get(field.toGenericString());
-            if(--count > 0) {
-                fields.put(field.toGenericString(), count);
-            } else {
-                fields.remove(field.toGenericString());
+    synchronized void release(Object owner, Field field) {
+        FieldReferences references = owners.get(owner);
+        if (references != null) {
+            if (references.decrement(field)) {
+                release();
+            }
+            if (references.isEmpty()) {
+                owners.remove(owner);
             }
-        }
-
-        if(fields != null && fields.isEmpty()) {
-            owners.remove(owner);
         }
     }
 
     void freeCache() {
         if (scopeCache != null) {
-            ScopeCache.CachedItem cachedItem = scopeCache.findCacheItem(type, qualifier);
-            if (cachedItem != null) {
-                scopeCache.removeCache(cachedItem.type, cachedItem.qualifier);
-            }
+            scopeCache.removeCache(key());
         }
     }
 
+    /**
+     * @return Whether the cached instance is retained by the scope cache after it's not
+     * referenced any more
+     */
+    boolean keepIdle() {
+        return scopeCache != null && scopeCache.keepIdle(key());
+    }
+
     public int getReferenceCount() {
         return totalRefCount;
     }
@@ -177,6 +243,27 @@ public abstract class Provider<T> {
         this.qualifier = qualifier;
     }
 
+    /**
+     * Key of the binding made of the type and the {@link #getQualifier()} of this provider. It's
+     * built on first use since subclasses may override {@link #getQualifier()}.
+     * @return The key
+     */
+    ProviderKey key() {
+        if (key == null) {
+            key = new ProviderKey(type, getQualifier());
+        }
+        return key;
+    }
+
+    /**
+     * The class of instances this provider is known to create before creating any of them. Used
+     * by {@link SimpleGraph#compile(Class)} to walk dependencies ahead of injection.
+     * @return The type of the provider unless subclasses know the implementation class
+     */
+    Class<?> implementationType() {
+        return type;
+    }
+
     /**
      * Get qualifier of the provider
      * @return The qualifier
@@ -202,7 +289,7 @@ public abstract class Provider<T> {
      */
     public T findCachedInstance() {
         if (scopeCache != null) {
-            ScopeCache.CachedItem<T> cachedItem = scopeCache.findCacheItem(type, qualifier);
+            ScopeCache.CachedItem<T> cachedItem = scopeCache.findCacheItem(key());
             if(cachedItem != null) {
                 return cachedItem.instance;
             }
@@ -214,7 +301,7 @@ public abstract class Provider<T> {
      * Register listener which will be called back when the instance is injected. It will called
      * until all injectable fields of the object are fully and recursively if needed injected.
      */
-    public void registerOnInjectedListener(OnInjectedListener<T> listener) {
+    public synchronized void registerOnInjectedListener(OnInjectedListener<T> listener) {
         if(onInjectedListeners == null) {
             onInjectedListeners = new ArrayList<>();
         }
@@ -224,7 +311,7 @@ public abstract class Provider<T> {
     /**
      * Unregister listener which will be called back when the instance is injected.
      */
-    public void unregisterOnInjectedListener(OnInjectedListener<T> listener) {
+    public synchronized void unregisterOnInjectedListener(OnInjectedListener<T> listener) {
         if(removingOnInjectedListeners == null) {
             removingOnInjectedListeners = new ArrayList<>();
         }
@@ -263,14 +350,28 @@ public abstract class Provider<T> {
      *
      * @param object Who just get fully injected
      */
+    @SuppressWarnings("unchecked")
     void notifyInjected(T object) {
-        if (onInjectedListeners != null) {
-            int len = onInjectedListeners.size();
-            for(int i = 0; i < len; i++) {
-                onInjectedListeners.get(i).onInjected(object);
+        //Listeners are called without holding the lock of this provider since they may inject
+        //other objects from the graph
+        OnInjectedListener<T>[] listeners = null;
+        synchronized (this) {
+            if (onInjectedListeners != null) {
+                listeners = onInjectedListeners.toArray(new OnInjectedListener[onInjectedListeners.size()]);
+            }
+        }
+        if (listeners != null) {
+            for (OnInjectedListener<T> listener : listeners) {
+                listener.onInjected(object);
             }
         }
 
+        synchronized (this) {
+            removeUnregisteredOnInjectedListeners();
+        }
+    }
+
+    private void removeUnregisteredOnInjectedListeners() {
         //Check the held listeners need to be removed. If exist remove them.
         if(removingOnInjectedListeners != null && onInjectedListeners != null) {
             int len = removingOnInjectedListeners.size();
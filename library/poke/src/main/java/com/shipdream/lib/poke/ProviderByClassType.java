@@ -19,16 +19,64 @@ package com.shipdream.lib.poke;
 import com.shipdream.lib.poke.exception.ProvideException;
 import com.shipdream.lib.poke.util.ReflectUtils;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
+import javax.inject.Inject;
+
 /**
- * This provider uses default/empty constructor by provided class type to get dependencies. So
- * make sure the implementation has default public constructor
+ * This provider creates instances of the implementation class by its constructor annotated by
+ * {@link Inject} or, when there isn't one, by its default empty constructor. The constructor is
+ * looked up and opened once per provider.
+ *
+ * <p>Arguments of an {@link Inject} constructor are provided by the graph creating the instance
+ * and held by the instance until it's released, so they can be assigned to final fields. Such
+ * instances can only be provided by a {@link Graph}.</p>
  */
 public class ProviderByClassType<T> extends Provider<T> {
+    /**
+     * Provides and releases arguments of {@link Inject} constructors. The graph sets it for the
+     * thread it's injecting on.
+     */
+    interface ArgumentsProvider {
+        Arguments provideArguments(ProviderByClassType<?> provider) throws ProvideException;
+
+        void releaseArguments(ProviderByClassType<?> provider, Arguments arguments)
+                throws ProvideException;
+    }
+
+    /**
+     * Arguments of an {@link Inject} constructor with the providers they are referenced from
+     */
+    static final class Arguments {
+        final Provider<?>[] providers;
+        final Object[] values;
+        //The annotation the arguments are injected by so they are released by the same one
+        Class<? extends Annotation> injectAnnotation;
+
+        Arguments(int size) {
+            providers = new Provider<?>[size];
+            values = new Object[size];
+        }
+    }
+
+    static final ThreadLocal<ArgumentsProvider> argumentsProviders = new ThreadLocal<>();
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
     private final Class<? extends T> clazz;
     private final String implClassName;
+    private Constructor<? extends T> constructor;
+    private NoSuchMethodException missingConstructorError;
+    /**
+     * Keys of the parameters of the constructor. Empty when the default constructor is used.
+     */
+    ProviderKey[] parameterKeys;
+    /**
+     * Arguments held by the instances created by the {@link Inject} constructor. Instances are
+     * held weakly so an instance never released can still be collected. Guarded by the provider.
+     */
+    final WeakIdentityMap<Object, Arguments> constructorArguments = new WeakIdentityMap<>();
 
     /**
      * Construct a {@link ProviderByClassType} with {@link javax.inject.Qualifier}
@@ -44,28 +92,83 @@ public class ProviderByClassType<T> extends Provider<T> {
     /**
      * Construct a {@link ProviderByClassType} with {@link javax.inject.Qualifier}
      * @param type The contract of the implementation
-     * @param implementationClass The class type of the implementation. It has to have a default
-     *                            public constructor
+     * @param implementationClass The class type of the implementation. It has to have a
+     *                            constructor annotated by {@link Inject} or a default constructor
      */
     public ProviderByClassType(Class<T> type, Class<? extends T> implementationClass) {
         super(type, ReflectUtils.findFirstQualifier(implementationClass));
         this.implClassName = implementationClass.getName();
         this.clazz = implementationClass;
+        resolveConstructor();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resolveConstructor() {
+        parameterKeys = new ProviderKey[0];
+        for (Constructor<?> candidate : clazz.getDeclaredConstructors()) {
+            if (candidate.isAnnotationPresent(Inject.class)) {
+                constructor = (Constructor<? extends T>) candidate;
+                Class<?>[] types = candidate.getParameterTypes();
+                Annotation[][] annotations = candidate.getParameterAnnotations();
+                parameterKeys = new ProviderKey[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    parameterKeys[i] = new ProviderKey(types[i],
+                            ReflectUtils.findFirstQualifier(annotations[i]));
+                }
+                break;
+            }
+        }
+        if (constructor == null) {
+            try {
+                constructor = clazz.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                //Reported when an instance is created
+                missingConstructorError = e;
+                return;
+            }
+        }
+        constructor.setAccessible(true);
+    }
+
+    @Override
+    Class<?> implementationType() {
+        return clazz;
     }
 
     @Override
     public T createInstance() throws ProvideException {
+        if (constructor == null) {
+            throwProvideException(missingConstructorError);
+        }
+
+        Arguments arguments = null;
+        ArgumentsProvider argumentsProvider = null;
+        if (parameterKeys.length > 0) {
+            argumentsProvider = argumentsProviders.get();
+            if (argumentsProvider == null) {
+                throw new ProvideException(String.format("Failed to provide class - %s. Its " +
+                        "constructor annotated by @Inject can only be called by a graph.",
+                        implClassName));
+            }
+            arguments = argumentsProvider.provideArguments(this);
+        }
+
         try {
-            Constructor constructor = clazz.getDeclaredConstructor();
-            constructor.setAccessible(true);
-            return (T)constructor.newInstance();
+            T instance = constructor.newInstance(arguments == null ? NO_ARGUMENTS : arguments.values);
+            if (arguments != null) {
+                synchronized (this) {
+                    constructorArguments.put(instance, arguments);
+                }
+            }
+            return instance;
         } catch (InstantiationException e) {
+            releaseArguments(argumentsProvider, arguments);
             throwProvideException(e);
         } catch (IllegalAccessException e) {
-            throwProvideException(e);
-        } catch (NoSuchMethodException e) {
+            releaseArguments(argumentsProvider, arguments);
             throwProvideException(e);
         } catch (InvocationTargetException e) {
+            releaseArguments(argumentsProvider, arguments);
             throwProvideException(e);
         }
 
@@ -73,9 +176,17 @@ public class ProviderByClassType<T> extends Provider<T> {
                 "of it returns null", type()));
     }
 
+    private void releaseArguments(ArgumentsProvider argumentsProvider, Arguments arguments)
+            throws ProvideException {
+        if (argumentsProvider != null) {
+            argumentsProvider.releaseArguments(this, arguments);
+        }
+    }
+
     private void throwProvideException(Exception e) throws ProvideException {
         throw new ProvideException(String.format("Failed to provide class - %s. Make sure %s exist " +
-                "and with a default empty constructor.", clazz.getName(), implClassName), e);
+                "and with a default empty constructor or a constructor annotated by @Inject.",
+                clazz.getName(), implClassName), e);
     }
 
 }
@@ -22,29 +22,102 @@ import com.shipdream.lib.poke.exception.ProviderMissingException;
 import com.shipdream.lib.poke.util.ReflectUtils;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Qualifier;
-import javax.inject.Singleton;
 
 /**
- * {@link ProviderFinder} that registers providers manually.
+ * {@link ProviderFinder} that registers providers manually. Providers can be found concurrently
+ * while registering and unregistering are serialized.
  */
 public class ProviderFinderByRegistry implements ProviderFinder {
-    private static class ProviderHolder<T> {
-        private Provider<T> original;
-        private Provider<T> overrider;
+    static class ProviderHolder<T> {
+        volatile Provider<T> original;
+        volatile Provider<T> overrider;
     }
 
-    final Map<String, ProviderHolder> providers = new HashMap<>();
+    /**
+     * Listener called after a binding of the registry is added, overridden or removed
+     */
+    interface OnChangedListener {
+        void onChanged(ProviderFinderByRegistry registry);
+    }
+
+    final Map<ProviderKey, ProviderHolder> providers = new ConcurrentHashMap<>();
+    /**
+     * Listeners are held weakly so a registry shared by or outliving graphs doesn't keep the graphs
+     * listening to it reachable. Listeners collected are dropped on the next change.
+     */
+    private final List<WeakReference<OnChangedListener>> onChangedListeners =
+            new CopyOnWriteArrayList<>();
+    /**
+     * Whether a graph compiled from the bindings of this registry relies on them not changing
+     */
+    private volatile boolean frozen;
+
+    void registerOnChangedListener(OnChangedListener listener) {
+        onChangedListeners.add(new WeakReference<>(listener));
+    }
+
+    void unregisterOnChangedListener(OnChangedListener listener) {
+        for (WeakReference<OnChangedListener> reference : onChangedListeners) {
+            if (reference.get() == listener) {
+                onChangedListeners.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * Reject changes of bindings from now on, e.g. once a graph is compiled from them
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Bindings can't be changed after a graph using the " +
+                    "registry is compiled");
+        }
+    }
+
+    private void notifyChanged() {
+        for (WeakReference<OnChangedListener> reference : onChangedListeners) {
+            OnChangedListener listener = reference.get();
+            if (listener == null) {
+                onChangedListeners.remove(reference);
+            } else {
+                listener.onChanged(this);
+            }
+        }
+    }
+
+    /**
+     * Providers in effect in the registry, the overriding one of a binding if it's overridden.
+     * Subclasses creating providers on the fly should add theirs.
+     * @return The providers
+     */
+    protected Collection<Provider<?>> getProviders() {
+        List<Provider<?>> result = new ArrayList<>();
+        for (ProviderHolder holder : providers.values()) {
+            Provider<?> provider = holder.overrider != null ? holder.overrider : holder.original;
+            if (provider != null) {
+                result.add(provider);
+            }
+        }
+        return result;
+    }
 
     @SuppressWarnings("unchecked")
     @Override
     public <T> Provider<T> findProvider(Class<T> type, Annotation qualifier) throws ProviderMissingException {
-        ProviderHolder providerHolder = providers.get(PokeHelper.makeProviderKey(type, qualifier));
+        ProviderHolder providerHolder = providers.get(new ProviderKey(type, qualifier));
 
         if (providerHolder != null) {
             if (providerHolder.overrider == null) {
@@ -229,9 +302,10 @@ public class ProviderFinderByRegistry implements ProviderFinder {
      * @throws ProviderConflictException Thrown when duplicate registries detected against the same
      *                                   type and qualifier.
      */
-    public void register(Provider provider, boolean allowOverride) throws ProviderConflictException {
+    public synchronized void register(Provider provider, boolean allowOverride) throws ProviderConflictException {
+        checkNotFrozen();
         Class type = provider.type();
-        String key = PokeHelper.makeProviderKey(provider.type(), provider.getQualifier());
+        ProviderKey key = provider.key();
         ProviderHolder providerHolder = providers.get(key);
 
         if (providerHolder == null) {
@@ -258,6 +332,7 @@ public class ProviderFinderByRegistry implements ProviderFinder {
                 providerHolder.overrider = provider;
             }
         }
+        notifyChanged();
     }
 
     /**
@@ -278,8 +353,9 @@ public class ProviderFinderByRegistry implements ProviderFinder {
      * @param qualifier The annotation of the qualifier. When null is given, this method will
      *                  specifically look for provider without qualifier
      */
-    private void unregister(Class<?> type, Annotation qualifier) {
-        String key = PokeHelper.makeProviderKey(type, qualifier);
+    private synchronized void unregister(Class<?> type, Annotation qualifier) {
+        checkNotFrozen();
+        ProviderKey key = new ProviderKey(type, qualifier);
         ProviderHolder targetProvider = providers.get(key);
 
         if (targetProvider != null) {
@@ -292,8 +368,9 @@ public class ProviderFinderByRegistry implements ProviderFinder {
                 providers.remove(key);
             }
             if (providerToRemove.scopeCache != null) {
-                providerToRemove.scopeCache.removeCache(type, qualifier);
+                providerToRemove.scopeCache.removeCache(key);
             }
+            notifyChanged();
         }
     }
 
@@ -326,11 +403,8 @@ public class ProviderFinderByRegistry implements ProviderFinder {
      */
     public void register(Component component, boolean allowOverride) throws ProvideException,
             ProviderConflictException {
-        Method[] methods = component.getClass().getDeclaredMethods();
-        for (Method method : methods) {
-            if (method.isAnnotationPresent(Provides.class)) {
-                registerProvides(component, method, allowOverride);
-            }
+        for (ComponentPlan.ProvidesMethod method : ComponentPlan.get(component.getClass()).methods) {
+            registerProvides(component, method, allowOverride);
         }
     }
 
@@ -341,92 +415,43 @@ public class ProviderFinderByRegistry implements ProviderFinder {
      * @param component The component contains methods annotated by {@link Provides}
      */
     public void unregister(Component component) {
-        Method[] methods = component.getClass().getDeclaredMethods();
-        for (Method method : methods) {
-            if (method.isAnnotationPresent(Provides.class)) {
-                Class<?> returnType = method.getReturnType();
-                if (returnType != void.class) {
-                    Annotation qualifier = null;
-                    Annotation[] annotations = method.getAnnotations();
-                    for (Annotation a : annotations) {
-                        if (a.annotationType().isAnnotationPresent(Qualifier.class)) {
-                            qualifier = a;
-                            break;
-                        }
-                    }
-
-                    unregister(returnType, qualifier);
-                }
+        for (ComponentPlan.ProvidesMethod method : ComponentPlan.get(component.getClass()).methods) {
+            if (method.returnType != void.class) {
+                unregister(method.returnType, method.qualifier);
             }
         }
     }
 
-    private void registerProvides(final Component component, final Method method, boolean allowOverride)
+    @SuppressWarnings("unchecked")
+    private void registerProvides(Component component, ComponentPlan.ProvidesMethod method,
+                                  boolean allowOverride)
             throws ProvideException, ProviderConflictException {
-        Class<?> returnType = method.getReturnType();
-        if (returnType == void.class) {
-            throw new ProvideException(String.format("Provides method %s must not return void.",
-                    method.getName()));
-        } else {
-            Annotation[] annotations = method.getAnnotations();
-            boolean singleton = false;
-            Annotation qualifier = null;
-            for (Annotation a : annotations) {
-                if (a.annotationType() == Singleton.class) {
-                    singleton = true;
-                }
-
-                if (a.annotationType().isAnnotationPresent(Qualifier.class)) {
-                    if (qualifier != null) {
-                        throw new ProvideException("Only one Qualifier is supported for Provide method. " +
-                                String.format("Found multiple qualifier %s and %s for method %s",
-                                        qualifier.getClass().getName(), a.getClass().getName(),
-                                        method.getName()));
-                    }
-                    qualifier = a;
-                }
-            }
-
-            Provider provider = new MethodProvider(returnType, qualifier, component, method);
-            if (singleton) {
-                provider.setScopeCache(component.getScopeCache());
-            }
+        if (method.error != null) {
+            throw new ProvideException(method.error);
+        }
 
-            register(provider, allowOverride);
+        Provider provider = new MethodProvider(component, method);
+        if (method.singleton) {
+            provider.setScopeCache(component.getScopeCache());
         }
+
+        register(provider, allowOverride);
     }
 
     static class MethodProvider extends Provider {
         private final Component component;
-        private final Method method;
+        private final ComponentPlan.ProvidesMethod method;
 
         @SuppressWarnings("unchecked")
-        MethodProvider(Class type, Annotation qualifier, Component component, Method method) {
-            super(type, qualifier);
+        MethodProvider(Component component, ComponentPlan.ProvidesMethod method) {
+            super(method.returnType, method.qualifier);
             this.component = component;
             this.method = method;
         }
 
         @Override
         protected Object createInstance() throws ProvideException {
-            try {
-                boolean accessible = method.isAccessible();
-                if (!accessible) {
-                    method.setAccessible(true);
-                }
-
-                Object obj = method.invoke(component);
-
-                method.setAccessible(accessible);
-
-                return obj;
-            } catch (IllegalAccessException e) {
-                throw new ProvideException(String.format("Provides method %s must " +
-                        "be accessible.", method.getName()), e);  // $COVERAGE-IGNORE$
-            } catch (InvocationTargetException e) {
-                throw new ProvideException(String.format("Provides method %s is not able " +
-                        "to be invoked against %s.", method.getName(), component.getClass().getName()), e);  // $COVERAGE-IGNORE$
-            }
+            return method.invoke(component);
         }
     }
 }
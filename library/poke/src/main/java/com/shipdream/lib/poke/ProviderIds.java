@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Allocates {@link Provider#id}s. Ids of providers collected by GC are handed out again and new
+ * providers take the lowest free id, so ids stay as dense as the providers alive and bitsets
+ * indexed by them don't grow with every provider ever created.
+ */
+final class ProviderIds {
+    private static final class IdReference extends WeakReference<Provider<?>> {
+        private final int id;
+
+        private IdReference(Provider<?> provider, int id, ReferenceQueue<Provider<?>> queue) {
+            super(provider, queue);
+            this.id = id;
+        }
+    }
+
+    private static final ReferenceQueue<Provider<?>> collected = new ReferenceQueue<>();
+    private static final BitSet used = new BitSet();
+    /**
+     * References by id, keeping them reachable until their providers are collected
+     */
+    private static IdReference[] references = new IdReference[64];
+
+    private ProviderIds() {
+    }
+
+    /**
+     * Allocate an id for the provider, freeing the ids of providers collected so far first
+     */
+    static synchronized int acquire(Provider<?> provider) {
+        IdReference freed;
+        while ((freed = (IdReference) collected.poll()) != null) {
+            references[freed.id] = null;
+            used.clear(freed.id);
+        }
+
+        int id = used.nextClearBit(0);
+        used.set(id);
+        if (id == references.length) {
+            references = Arrays.copyOf(references, id * 2);
+        }
+        references[id] = new IdReference(provider, id, collected);
+        return id;
+    }
+}
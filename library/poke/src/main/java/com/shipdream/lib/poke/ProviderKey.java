@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Immutable key identifying a binding by its type and qualifier. The hash code is computed once so
+ * the key can be shared by {@link ProviderFinderByRegistry}, {@link ScopeCache} and {@link Graph}
+ * without building strings on every lookup.
+ */
+public final class ProviderKey {
+    private final Class<?> type;
+    private final Annotation qualifier;
+    private final int hashCode;
+
+    /**
+     * Construct a key
+     * @param type The type of the binding
+     * @param qualifier The qualifier of the binding. Null when the binding is not qualified
+     */
+    public ProviderKey(Class<?> type, Annotation qualifier) {
+        this.type = type;
+        this.qualifier = qualifier;
+        this.hashCode = 31 * type.hashCode() + (qualifier == null ? 0 : qualifier.hashCode());
+    }
+
+    /**
+     * @return The type of the binding
+     */
+    public Class<?> type() {
+        return type;
+    }
+
+    /**
+     * @return The qualifier of the binding. Null when the binding is not qualified
+     */
+    public Annotation qualifier() {
+        return qualifier;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProviderKey)) {
+            return false;
+        }
+        ProviderKey that = (ProviderKey) o;
+        if (hashCode != that.hashCode || type != that.type) {
+            return false;
+        }
+        return qualifier == that.qualifier
+                || (qualifier != null && qualifier.equals(that.qualifier));
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return type.getName() + "@" + ((qualifier == null) ? "NoQualifier" : qualifier.toString());
+    }
+}
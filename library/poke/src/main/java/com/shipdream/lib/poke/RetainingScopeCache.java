@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * {@link ScopeCache} keeping instances after they are not referenced any more so injecting them
+ * again doesn't rebuild them. Idle instances are tracked from the eldest to the latest and evicted
+ * by {@link #shouldEvict(ScopeCache.CachedItem, int)}. Evicted instances are freed the next time
+ * the graph releases an instance of this cache, with {@link Provider.OnFreedListener}s notified
+ * as usual. Nothing is evicted in the background, so while no instance of this cache is released,
+ * idle instances stay in memory however long they have been idle.
+ */
+public abstract class RetainingScopeCache extends ScopeCache {
+    private final Map<ProviderKey, CachedItem<?>> idleItems = new LinkedHashMap<>();
+    private final Queue<CachedItem<?>> evictedItems = new ArrayDeque<>();
+
+    /**
+     * Whether the eldest idle item should be evicted. Called repeatedly from the eldest idle item
+     * until it returns false.
+     * @param eldest The item idle for the longest time
+     * @param idleCount The number of idle items including the eldest
+     * @return true to evict the eldest item
+     */
+    protected abstract boolean shouldEvict(CachedItem<?> eldest, int idleCount);
+
+    /**
+     * @param item The idle item
+     * @return The time in nanoseconds by {@link #nanoTime()} when the item became idle
+     */
+    protected final long getIdleSince(CachedItem<?> item) {
+        return item.idleSince;
+    }
+
+    /**
+     * @return Current time in nanoseconds to stamp idle items
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Evict idle items by {@link #shouldEvict(ScopeCache.CachedItem, int)}
+     */
+    protected synchronized void trim() {
+        Iterator<CachedItem<?>> iterator = idleItems.values().iterator();
+        while (iterator.hasNext()) {
+            CachedItem<?> eldest = iterator.next();
+            if (!shouldEvict(eldest, idleItems.size())) {
+                break;
+            }
+            iterator.remove();
+            evictedItems.add(eldest);
+        }
+    }
+
+    @Override
+    protected synchronized boolean retainIdle(CachedItem<?> item) {
+        item.idleSince = nanoTime();
+        idleItems.put(item.provider.key(), item);
+        trim();
+        return true;
+    }
+
+    @Override
+    protected synchronized void onIdleEnded(CachedItem<?> item) {
+        ProviderKey key = item.provider.key();
+        if (idleItems.get(key) == item) {
+            idleItems.remove(key);
+        }
+    }
+
+    @Override
+    protected synchronized CachedItem<?> pollEvicted() {
+        if (evictedItems.isEmpty()) {
+            trim();
+        }
+        return evictedItems.poll();
+    }
+}
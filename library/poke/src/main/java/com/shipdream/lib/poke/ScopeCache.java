@@ -20,11 +20,17 @@ import com.shipdream.lib.poke.exception.ProvideException;
 
 import java.lang.annotation.Annotation;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * The cache controls how the provider associated should generate new instances.
+ * The cache controls how the provider associated should generate new instances. It's safe to be
+ * accessed by multiple threads.
+ *
+ * <p>By default a cached instance is freed as soon as it's not referenced any more. Subclasses
+ * may keep the idle instance for a while by {@link #retainIdle(CachedItem)} so it can be reused
+ * by the next injection, e.g. {@link LruScopeCache}, {@link SoftScopeCache} and
+ * {@link TtlScopeCache}.</p>
  */
 public class ScopeCache {
 
@@ -33,6 +39,10 @@ public class ScopeCache {
         T instance;
         Annotation qualifier;
         Provider<T> provider;
+        //Whether the instance is not referenced but still retained by the cache. Only changed
+        //while holding the lock of the provider
+        boolean idle;
+        long idleSince;
 
         public Class<T> getType() {
             return type;
@@ -51,33 +61,51 @@ public class ScopeCache {
         }
     }
 
-    protected Map<String, CachedItem> cache = new HashMap<>();
+    protected Map<ProviderKey, CachedItem<?>> cache = new ConcurrentHashMap<>();
 
     @SuppressWarnings("unchecked")
     <T> T get(Provider<T> provider) throws ProvideException {
-        String key = PokeHelper.makeProviderKey(provider.type(), provider.getQualifier());
-        CachedItem<T> item = cache.get(key);
+        CachedItem<T> item = (CachedItem<T>) cache.get(provider.key());
+        if (item != null && item.idle) {
+            synchronized (provider) {
+                if (item.idle) {
+                    item.idle = false;
+                    onIdleEnded(item);
+                }
+            }
+        }
         if (item == null) {
-            item = new CachedItem<>();
-            item.type = provider.type();
-            item.instance = provider.createInstance();
-            item.provider = provider;
-            if(item.instance == null) {
-                String qualifierName = (provider.getQualifier() == null) ? "null" : provider.getQualifier().getClass().getName();
-                throw new ProvideException(String.format("Provider (type: %s, qualifier: " +
-                                "%s) should not provide NULL as instance",
-                        provider.type().getName(), qualifierName));
+            //Lock on the provider so only one instance is created when threads race for the same
+            //binding while different bindings are still created concurrently
+            synchronized (provider) {
+                item = (CachedItem<T>) cache.get(provider.key());
+                if (item == null) {
+                    item = new CachedItem<>();
+                    item.type = provider.type();
+                    item.instance = provider.createInstance();
+                    item.provider = provider;
+                    if(item.instance == null) {
+                        String qualifierName = (provider.getQualifier() == null) ? "null" : provider.getQualifier().getClass().getName();
+                        throw new ProvideException(String.format("Provider (type: %s, qualifier: " +
+                                        "%s) should not provide NULL as instance",
+                                provider.type().getName(), qualifierName));
+                    }
+                    item.qualifier = provider.getQualifier();
+                    cache.put(provider.key(), item);
+                }
             }
-            item.qualifier = provider.getQualifier();
-            cache.put(key, item);
         }
 
         return item.instance;
     }
 
-    @SuppressWarnings("unchecked")
     <T> CachedItem<T> findCacheItem(Class<T> type, Annotation qualifier) {
-        return cache.get(PokeHelper.makeProviderKey(type, qualifier));
+        return findCacheItem(new ProviderKey(type, qualifier));
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> CachedItem<T> findCacheItem(ProviderKey key) {
+        return (CachedItem<T>) cache.get(key);
     }
 
     @SuppressWarnings("unchecked")
@@ -88,14 +116,81 @@ public class ScopeCache {
      *                  specifically look for provider without qualifier
      */
     public <T> void removeCache(Class<T> type, Annotation qualifier) {
-        cache.remove(PokeHelper.makeProviderKey(type, qualifier));
+        removeCache(new ProviderKey(type, qualifier));
+    }
+
+    void removeCache(ProviderKey key) {
+        CachedItem<?> item = cache.remove(key);
+        if (item != null && item.idle) {
+            synchronized (item.provider) {
+                if (item.idle) {
+                    item.idle = false;
+                    onIdleEnded(item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the cached instance of the key as an idle instance if the cache wants to retain it.
+     * Called while holding the lock of the provider when it's not referenced any more.
+     * @return Whether the instance is kept
+     */
+    boolean keepIdle(ProviderKey key) {
+        CachedItem<?> item = cache.get(key);
+        if (item == null) {
+            return false;
+        }
+        if (!item.idle) {
+            if (!retainIdle(item)) {
+                return false;
+            }
+            item.idle = true;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the given item is still cached as an idle instance
+     */
+    boolean isIdle(CachedItem<?> item) {
+        return item.idle && cache.get(item.provider.key()) == item;
+    }
+
+    /**
+     * Called when the last reference of the cached instance is released. Override to keep the
+     * instance for a while instead of freeing it right away. Items retained must be handed back by
+     * {@link #pollEvicted()} when the cache decides to give them up.
+     * @param item The item no longer referenced
+     * @return Whether to keep the instance cached. The base cache never retains idle instances.
+     */
+    protected boolean retainIdle(CachedItem<?> item) {
+        return false;
+    }
+
+    /**
+     * Called when an item retained by {@link #retainIdle(CachedItem)} stops being idle because
+     * it's injected again or removed from the cache. The cache should stop tracking it.
+     * @param item The item
+     */
+    protected void onIdleEnded(CachedItem<?> item) {
+    }
+
+    /**
+     * Poll the next item retained by {@link #retainIdle(CachedItem)} the cache has given up. The
+     * graph frees the instance and notifies {@link Provider.OnFreedListener}s unless the item has
+     * been injected again meanwhile.
+     * @return The evicted item or null if there is nothing to evict
+     */
+    protected CachedItem<?> pollEvicted() {
+        return null;
     }
 
     /**
      * Gets all cached items this cache still manages
      * @return The collection of cached times
      */
-    public Collection<CachedItem> getCachedItems() {
+    public Collection<CachedItem<?>> getCachedItems() {
         return cache.values();
     }
 }
@@ -16,8 +16,12 @@
 
 package com.shipdream.lib.poke;
 
+import com.shipdream.lib.poke.exception.CircularDependenciesException;
 import com.shipdream.lib.poke.exception.ProvideException;
 import com.shipdream.lib.poke.exception.ProviderConflictException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import java.lang.annotation.Annotation;
 
 import javax.inject.Qualifier;
 
@@ -26,6 +30,7 @@ import javax.inject.Qualifier;
  */
 public class SimpleGraph extends Graph {
     private final ProviderFinderByRegistry providerFinder;
+    private final ScopeCache scopeCache;
 
     /**
      * Construct a default graph with its own {@link ProviderFinderByRegistry}
@@ -40,9 +45,53 @@ public class SimpleGraph extends Graph {
      */
     public SimpleGraph(ProviderFinderByRegistry providerFinder) {
         this.providerFinder = providerFinder;
+        this.scopeCache = null;
+        addProviderFinders(providerFinder);
+    }
+
+    private SimpleGraph(SimpleGraph parent, ScopeCache scopeCache) {
+        super(parent);
+        this.providerFinder = new ProviderFinderByRegistry();
+        this.scopeCache = scopeCache;
         addProviderFinders(providerFinder);
     }
 
+    /**
+     * Create a child graph, e.g. for an activity or a flow of screens. The child resolves bindings
+     * registered to itself first and falls through to this graph for the others. It owns a
+     * {@link ScopeCache} returned by {@link #getScopeCache()} to register its bindings with, so
+     * when the flow ends {@link #dispose()} drops all of them at once instead of releasing every
+     * injected object. {@link Provider.OnFreedListener}s of this graph are notified of providers
+     * freed by the child as well.
+     *
+     * @return The child graph
+     */
+    public SimpleGraph newChild() {
+        return new SimpleGraph(this, new ScopeCache());
+    }
+
+    /**
+     * @return The scope cache owned by this child graph or null if this graph is not a child
+     */
+    public ScopeCache getScopeCache() {
+        return scopeCache;
+    }
+
+    /**
+     * Tear down this child graph created by {@link #newChild()}. Instances cached by its
+     * {@link #getScopeCache()} are freed and references it holds on instances of the parent graph
+     * are released, without walking the fields of injected objects. The child should not be used
+     * afterwards.
+     *
+     * @throws IllegalStateException Thrown when this graph is not a child graph
+     */
+    public void dispose() throws ProviderMissingException {
+        if (scopeCache == null) {
+            throw new IllegalStateException("Only child graphs can be disposed");
+        }
+        disposeChild(scopeCache);
+    }
+
     /**
      * Unregister binding to the given type and the qualifier annotated to the given
      * implementation class. If there is an overridden type registered already, only unregister the
@@ -56,6 +105,7 @@ public class SimpleGraph extends Graph {
      */
     public <T> void unregister(Class<T> type, String implementationClassName)
             throws ClassNotFoundException {
+        checkNotCompiled();
         providerFinder.unregister(type, implementationClassName);
     }
 
@@ -71,6 +121,7 @@ public class SimpleGraph extends Graph {
      * type and qualifier.
      */
     public void register(Provider provider, boolean allowOverride) throws ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(provider, allowOverride);
     }
 
@@ -89,6 +140,7 @@ public class SimpleGraph extends Graph {
      */
     public <T> void register(Class<T> type, String implementationClassName, ScopeCache scopeCache)
             throws ProviderConflictException, ClassNotFoundException {
+        checkNotCompiled();
         providerFinder.register(type, implementationClassName, scopeCache);
     }
 
@@ -101,6 +153,7 @@ public class SimpleGraph extends Graph {
      * @param implementationClass The class annotated with the qualifier
      */
     public <T, S extends T> void unregister(Class<T> type, Class<S> implementationClass) {
+        checkNotCompiled();
         providerFinder.unregister(type, implementationClass);
     }
 
@@ -114,6 +167,7 @@ public class SimpleGraph extends Graph {
      * type and qualifier.
      */
     public void register(Provider provider) throws ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(provider);
     }
 
@@ -131,6 +185,7 @@ public class SimpleGraph extends Graph {
      */
     public <T> void register(Class<T> type, String implementationClassName)
             throws ProviderConflictException, ClassNotFoundException {
+        checkNotCompiled();
         providerFinder.register(type, implementationClassName);
     }
 
@@ -141,6 +196,7 @@ public class SimpleGraph extends Graph {
      * @param component The component contains methods annotated by {@link Provides}
      */
     public void unregister(Component component) {
+        checkNotCompiled();
         providerFinder.unregister(component);
     }
 
@@ -157,6 +213,7 @@ public class SimpleGraph extends Graph {
      */
     public <T, S extends T> void register(Class<T> type, Class<S> implementationClass)
             throws ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(type, implementationClass);
     }
 
@@ -172,6 +229,7 @@ public class SimpleGraph extends Graph {
      * type and qualifier.
      */
     public void register(Component component) throws ProvideException, ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(component);
     }
 
@@ -192,6 +250,7 @@ public class SimpleGraph extends Graph {
     public <T, S extends T> void register(Class<T> type, Class<S> implementationClass,
                                           ScopeCache scopeCache, boolean allowOverride)
             throws ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(type, implementationClass, scopeCache, allowOverride);
     }
 
@@ -209,6 +268,7 @@ public class SimpleGraph extends Graph {
      */
     public void register(Component component, boolean allowOverride) throws ProvideException,
             ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(component, allowOverride);
     }
 
@@ -226,6 +286,7 @@ public class SimpleGraph extends Graph {
      */
     public <T, S extends T> void register(Class<T> type, Class<S> implementationClass,
                                           ScopeCache scopeCache) throws ProviderConflictException {
+        checkNotCompiled();
         providerFinder.register(type, implementationClass, scopeCache);
     }
 
@@ -236,6 +297,7 @@ public class SimpleGraph extends Graph {
      * @param provider The provider that has the type and qualifier to unregister against
      */
     public void unregister(Provider provider) {
+        checkNotCompiled();
         providerFinder.unregister(provider);
     }
 
@@ -256,6 +318,36 @@ public class SimpleGraph extends Graph {
      */
     public <T> void register(Class<T> type, String implementationClassName, ScopeCache scopeCache,
                              boolean allowOverride) throws ProviderConflictException, ClassNotFoundException {
+        checkNotCompiled();
         providerFinder.register(type, implementationClassName, scopeCache, allowOverride);
     }
+
+    /**
+     * Compile and freeze the graph. All classes created by registered providers are walked with
+     * their dependencies recursively so missing providers and circular dependencies that can't be
+     * resolved by scoped providers are reported up front. Afterwards, injection with the given
+     * inject annotation finds providers from the compiled table and skips tracking circular
+     * dependencies for instances not involved in any of them.
+     * <p>Production apps usually register all bindings at start up so they can pay the validation
+     * once. Registering or unregistering bindings on a compiled graph, or directly on the
+     * {@link ProviderFinderByRegistry} it's constructed with, throws
+     * {@link IllegalStateException}.</p>
+     *
+     * @param injectAnnotation The annotation marking injectable fields the graph is compiled for
+     * @throws ProviderMissingException Thrown when a dependency has no provider
+     * @throws CircularDependenciesException Thrown when classes depend on each other circularly
+     * through unscoped providers only
+     */
+    public void compile(Class<? extends Annotation> injectAnnotation)
+            throws ProviderMissingException, CircularDependenciesException {
+        setCompiledGraph(CompiledGraph.compile(this, providerFinder.getProviders(),
+                injectAnnotation));
+        providerFinder.freeze();
+    }
+
+    private void checkNotCompiled() {
+        if (isCompiled()) {
+            throw new IllegalStateException("Bindings can't be changed after the graph is compiled");
+        }
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * {@link ScopeCache} keeping idle instances until memory runs low. Idle instances are held
+ * strongly so they can still be disposed properly by {@link Provider.OnFreedListener}s. A softly
+ * referenced sentinel tells when the garbage collector starts clearing soft references, after
+ * which all idle instances are freed the next time the graph releases an instance of this cache.
+ */
+public class SoftScopeCache extends RetainingScopeCache {
+    private SoftReference<Object> sentinel = new SoftReference<>(new Object());
+
+    @Override
+    protected boolean shouldEvict(CachedItem<?> eldest, int idleCount) {
+        return sentinel.get() == null;
+    }
+
+    @Override
+    protected synchronized void trim() {
+        super.trim();
+        if (sentinel.get() == null) {
+            sentinel = new SoftReference<>(new Object());
+        }
+    }
+
+    /**
+     * For testing to simulate the garbage collector clearing soft references
+     */
+    void clearSentinel() {
+        sentinel.clear();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ScopeCache} keeping idle instances for a period of time. Expired instances are freed the
+ * next time the graph releases an instance of this cache. There is no timer, so when nothing of
+ * this cache is released any more, e.g. the app is idle, expired instances are kept indefinitely.
+ */
+public class TtlScopeCache extends RetainingScopeCache {
+    private final long timeToLiveNanos;
+
+    /**
+     * @param timeToLive How long an instance is kept after it's not referenced
+     * @param unit The unit of timeToLive
+     */
+    public TtlScopeCache(long timeToLive, TimeUnit unit) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive must not be negative");
+        }
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+    }
+
+    @Override
+    protected boolean shouldEvict(CachedItem<?> eldest, int idleCount) {
+        return nanoTime() - getIdleSince(eldest) >= timeToLiveNanos;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Map comparing keys by identity and holding them weakly, so an object being a key doesn't stop it
+ * from being collected. Entries of collected keys are dropped on the next access. Values are held
+ * strongly, so a value referring to its key keeps the entry.
+ *
+ * <p>Putting a null value keeps the entry of the key, so a key put again, e.g. an object injected
+ * and released over and over, doesn't allocate a new entry. {@link #remove(Object)} drops the
+ * entry. The map isn't thread safe.</p>
+ */
+final class WeakIdentityMap<K, V> {
+    private static final class Entry<K, V> extends WeakReference<K> {
+        private final int hash;
+        private V value;
+        private Entry<K, V> next;
+
+        private Entry(K key, int hash, ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = hash;
+        }
+    }
+
+    private final ReferenceQueue<K> collected = new ReferenceQueue<>();
+    private Entry<K, V>[] buckets = newBuckets(16);
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V>[] newBuckets(int length) {
+        return (Entry<K, V>[]) new Entry<?, ?>[length];
+    }
+
+    /**
+     * @return The value of the key or null if there is none
+     */
+    V get(K key) {
+        expunge();
+        Entry<K, V> entry = find(key, System.identityHashCode(key));
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @return The previous value of the key or null if there is none
+     */
+    V put(K key, V value) {
+        expunge();
+        int hash = System.identityHashCode(key);
+        Entry<K, V> entry = find(key, hash);
+        if (entry == null) {
+            if (value == null) {
+                return null;
+            }
+            if (size >= buckets.length * 3 / 4) {
+                resize();
+            }
+            entry = new Entry<>(key, hash, collected);
+            int index = hash & (buckets.length - 1);
+            entry.next = buckets[index];
+            buckets[index] = entry;
+            size++;
+        }
+        V previous = entry.value;
+        entry.value = value;
+        return previous;
+    }
+
+    /**
+     * Drop the entry of the key
+     * @return The value of the key or null if there is none
+     */
+    V remove(K key) {
+        expunge();
+        int hash = System.identityHashCode(key);
+        int index = hash & (buckets.length - 1);
+        Entry<K, V> previous = null;
+        for (Entry<K, V> entry = buckets[index]; entry != null; entry = entry.next) {
+            if (entry.get() == key) {
+                unlink(index, previous, entry);
+                return entry.value;
+            }
+            previous = entry;
+        }
+        return null;
+    }
+
+    void clear() {
+        while (collected.poll() != null) {
+            //Entries are all dropped below
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            for (Entry<K, V> entry = buckets[i]; entry != null; entry = entry.next) {
+                entry.value = null;
+            }
+            buckets[i] = null;
+        }
+        size = 0;
+    }
+
+    private Entry<K, V> find(K key, int hash) {
+        for (Entry<K, V> entry = buckets[hash & (buckets.length - 1)]; entry != null;
+             entry = entry.next) {
+            if (entry.get() == key) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void unlink(int index, Entry<K, V> previous, Entry<K, V> entry) {
+        if (previous == null) {
+            buckets[index] = entry.next;
+        } else {
+            previous.next = entry.next;
+        }
+        size--;
+    }
+
+    /**
+     * Drop the entries of the keys collected so far
+     */
+    @SuppressWarnings("unchecked")
+    private void expunge() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            Entry<K, V> collectedEntry = (Entry<K, V>) reference;
+            int index = collectedEntry.hash & (buckets.length - 1);
+            Entry<K, V> previous = null;
+            for (Entry<K, V> entry = buckets[index]; entry != null; entry = entry.next) {
+                if (entry == collectedEntry) {
+                    unlink(index, previous, entry);
+                    entry.value = null;
+                    break;
+                }
+                previous = entry;
+            }
+        }
+    }
+
+    private void resize() {
+        Entry<K, V>[] old = buckets;
+        buckets = newBuckets(old.length * 2);
+        for (Entry<K, V> head : old) {
+            Entry<K, V> entry = head;
+            while (entry != null) {
+                Entry<K, V> next = entry.next;
+                int index = entry.hash & (buckets.length - 1);
+                entry.next = buckets[index];
+                buckets[index] = entry;
+                entry = next;
+            }
+        }
+    }
+}
@@ -59,7 +59,13 @@ public class ReflectUtils {
         return findFirstQualifier(clazz.getAnnotations());
     }
 
-    private static Annotation findFirstQualifier(Annotation[] annotations) {
+    /**
+     * Find the first qualifier among the given annotations, e.g. annotations of a parameter
+     *
+     * @param annotations The annotations
+     * @return Null if no qualifier is found otherwise the first qualifier
+     */
+    public static Annotation findFirstQualifier(Annotation[] annotations) {
         if (annotations != null) {
             for (Annotation a : annotations) {
                 if (a.annotationType().isAnnotationPresent(Qualifier.class)) {
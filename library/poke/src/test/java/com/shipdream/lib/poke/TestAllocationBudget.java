@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Guards the bytes allocated by injecting and releasing objects whose dependencies are cached
+ * already. Allocations are measured on the current thread by
+ * {@link com.sun.management.ThreadMXBean}, so the tests are skipped on VMs without it.
+ */
+public class TestAllocationBudget extends BaseTestCases {
+    private static final int WARM_UP_ROUNDS = 20000;
+    private static final int MEASURE_ROUNDS = 10000;
+    /**
+     * Bytes a round of inject and release may allocate on average. Receipts of the injection are
+     * reused, so only the field reference counts of the owners are expected, about 140 bytes for
+     * the graph below with compressed references and 200 bytes without. The rest is headroom.
+     */
+    private static final long INJECT_RELEASE_BUDGET = 256;
+
+    interface Engine {
+    }
+
+    static class EngineImpl implements Engine {
+    }
+
+    static class Wheels {
+    }
+
+    static class Car {
+        @MyInject
+        Engine engine;
+        @MyInject
+        Wheels wheels;
+    }
+
+    static class Garage {
+        @MyInject
+        Car car;
+    }
+
+    private SimpleGraph graph;
+    private com.sun.management.ThreadMXBean threadMXBean;
+
+    @Before
+    public void setUp() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        graph = new SimpleGraph();
+        graph.register(Engine.class, EngineImpl.class, new ScopeCache());
+        graph.register(Wheels.class, Wheels.class, new ScopeCache());
+        graph.register(Car.class, Car.class, new ScopeCache());
+    }
+
+    @Test
+    public void inject_and_release_of_cached_singletons_should_stay_in_budget()
+            throws PokeException {
+        Garage holder = new Garage();
+        //Keeps the singletons cached between rounds
+        graph.inject(holder, MyInject.class);
+
+        Garage garage = new Garage();
+        injectAndRelease(garage, WARM_UP_ROUNDS);
+        long bytes = injectAndRelease(garage, MEASURE_ROUNDS) / MEASURE_ROUNDS;
+        System.out.println(String.format("Inject and release of cached singletons: %d bytes per round",
+                bytes));
+
+        Assert.assertTrue(String.format("%d bytes allocated per round, budget is %d", bytes,
+                INJECT_RELEASE_BUDGET), bytes <= INJECT_RELEASE_BUDGET);
+        graph.release(holder, MyInject.class);
+    }
+
+    private long injectAndRelease(Garage garage, int rounds) throws PokeException {
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; i++) {
+            graph.inject(garage, MyInject.class);
+            graph.release(garage, MyInject.class);
+        }
+        return threadMXBean.getThreadAllocatedBytes(threadId) - start;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestChildGraph extends BaseTestCases {
+    interface Account {
+    }
+
+    static class AccountImpl implements Account {
+    }
+
+    interface Cart {
+    }
+
+    static class CartImpl implements Cart {
+        @MyInject
+        Account account;
+    }
+
+    static class CheckoutScreen {
+        @MyInject
+        Cart cart;
+
+        @MyInject
+        Account account;
+    }
+
+    private SimpleGraph graph;
+    private SimpleGraph child;
+    private Provider.OnFreedListener onFreedListener;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new SimpleGraph();
+        graph.register(Account.class, AccountImpl.class, new ScopeCache());
+        onFreedListener = mock(Provider.OnFreedListener.class);
+        graph.registerProviderFreedListener(onFreedListener);
+
+        child = graph.newChild();
+        child.register(Cart.class, CartImpl.class, child.getScopeCache());
+    }
+
+    @Test
+    public void child_should_resolve_locally_and_fall_through_to_parent() throws PokeException {
+        CheckoutScreen screen = new CheckoutScreen();
+        child.inject(screen, MyInject.class);
+
+        Assert.assertTrue(screen.cart instanceof CartImpl);
+        Assert.assertSame(screen.account, ((CartImpl) screen.cart).account);
+        Assert.assertEquals(2, graph.getProvider(Account.class, null).getReferenceCount());
+    }
+
+    @Test(expected = ProviderMissingException.class)
+    public void parent_should_not_resolve_bindings_of_child() throws PokeException {
+        graph.inject(new CheckoutScreen(), MyInject.class);
+    }
+
+    @Test
+    public void dispose_should_free_child_scope_and_release_references_on_parent()
+            throws PokeException {
+        CheckoutScreen screen = new CheckoutScreen();
+        child.inject(screen, MyInject.class);
+        Account account = screen.account;
+
+        //Parent keeps referencing the account after the flow ends
+        Account held = graph.reference(Account.class, null, MyInject.class);
+        Assert.assertEquals(3, graph.getProvider(Account.class, null).getReferenceCount());
+
+        child.dispose();
+        //Only the cart is freed
+        verify(onFreedListener, times(1)).onFreed(any(Provider.class));
+        Assert.assertTrue(child.getScopeCache().getCachedItems().isEmpty());
+        Assert.assertEquals(1, graph.getProvider(Account.class, null).getReferenceCount());
+
+        graph.dereference(held, Account.class, null, MyInject.class);
+        verify(onFreedListener, times(2)).onFreed(any(Provider.class));
+
+        Account another = graph.reference(Account.class, null, MyInject.class);
+        Assert.assertNotSame(account, another);
+    }
+
+    @Test
+    public void released_objects_should_not_be_released_again_by_dispose() throws PokeException {
+        CheckoutScreen screen = new CheckoutScreen();
+        child.inject(screen, MyInject.class);
+        child.release(screen, MyInject.class);
+        verify(onFreedListener, times(2)).onFreed(any(Provider.class));
+
+        Account account = graph.reference(Account.class, null, MyInject.class);
+        child.dispose();
+        Assert.assertEquals(1, graph.getProvider(Account.class, null).getReferenceCount());
+        Assert.assertNotNull(graph.getProvider(Account.class, null).findCachedInstance());
+        graph.dereference(account, Account.class, null, MyInject.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void root_graph_should_not_be_disposed() throws PokeException {
+        graph.dispose();
+    }
+}
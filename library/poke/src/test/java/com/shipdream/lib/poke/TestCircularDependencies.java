@@ -82,6 +82,28 @@ public class TestCircularDependencies extends BaseTestCases {
         graph.inject(factory, MyInject.class);
     }
 
+    @Test
+    public void circularDependenciesExceptionShouldTellThePath() throws ProvideException,
+            ProviderMissingException, ProviderConflictException {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Power.class, PowerImpl.class);
+        graph.register(Driver.class, DriverImpl.class);
+        graph.register(Robot.class, RobotImpl.class);
+
+        try {
+            graph.inject(new Factory(), MyInject.class);
+            Assert.fail("Circular dependencies should be detected");
+        } catch (CircularDependenciesException e) {
+            String message = e.getMessage();
+            int power = message.indexOf(Power.class.getName());
+            int robot = message.indexOf(Robot.class.getName());
+            int driver = message.indexOf(Driver.class.getName());
+            Assert.assertTrue(power < robot && robot < driver);
+            //Back to the revisited node
+            Assert.assertTrue(message.lastIndexOf(Power.class.getName()) > driver);
+        }
+    }
+
     @Test
     public void shouldNotifyInjectedCallbackWhenObjectFullyInjectedWithCircularDependencies() throws ProvideException,
             CircularDependenciesException, ProviderMissingException, ProviderConflictException {
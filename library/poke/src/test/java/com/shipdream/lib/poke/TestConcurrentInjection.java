@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestConcurrentInjection extends BaseTestCases {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2000;
+
+    interface Engine {}
+
+    static class V8 implements Engine {
+    }
+
+    interface Wheel {}
+
+    static class Tyre implements Wheel {
+        @MyInject
+        private Engine engine;
+    }
+
+    static class Car {
+        @MyInject
+        private Engine engine;
+
+        @MyInject
+        private Wheel wheel;
+    }
+
+    @Test
+    public void should_keep_reference_counts_consistent_when_injecting_from_multiple_threads()
+            throws Exception {
+        final SimpleGraph graph = new SimpleGraph();
+        final ScopeCache scopeCache = new ScopeCache();
+        graph.register(Engine.class, V8.class, scopeCache);
+        graph.register(Wheel.class, Tyre.class, scopeCache);
+
+        //Hold one car on this thread so the cached instances are never freed while others race
+        Car anchor = new Car();
+        graph.inject(anchor, MyInject.class);
+        final Engine engine = anchor.engine;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    start.await();
+                    boolean sameEngine = true;
+                    for (int i = 0; i < ROUNDS; i++) {
+                        Car car = new Car();
+                        graph.inject(car, MyInject.class);
+                        sameEngine &= car.engine == engine && ((Tyre) car.wheel).engine == engine;
+                        graph.release(car, MyInject.class);
+                    }
+                    return sameEngine;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Provider<Engine> engineProvider = graph.getProvider(Engine.class, null);
+        Provider<Wheel> wheelProvider = graph.getProvider(Wheel.class, null);
+        Assert.assertEquals(2, engineProvider.getReferenceCount());
+        Assert.assertEquals(1, wheelProvider.getReferenceCount());
+
+        graph.release(anchor, MyInject.class);
+        Assert.assertEquals(0, engineProvider.getReferenceCount());
+        Assert.assertEquals(0, wheelProvider.getReferenceCount());
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test
+    public void should_inject_from_on_injected_listener_of_another_injection() throws Exception {
+        final SimpleGraph graph = new SimpleGraph();
+        final ScopeCache scopeCache = new ScopeCache();
+        graph.register(Engine.class, V8.class, scopeCache);
+        graph.register(Wheel.class, Tyre.class, scopeCache);
+
+        final Car spare = new Car();
+        Provider<Wheel> wheelProvider = graph.getProvider(Wheel.class, null);
+        wheelProvider.registerOnInjectedListener(new Provider.OnInjectedListener<Wheel>() {
+            @Override
+            public void onInjected(Wheel object) {
+                try {
+                    graph.inject(spare, MyInject.class);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        Car car = new Car();
+        graph.inject(car, MyInject.class);
+
+        Assert.assertSame(car.engine, spare.engine);
+        Assert.assertSame(car.wheel, spare.wheel);
+        Assert.assertEquals(4, graph.getProvider(Engine.class, null).getReferenceCount());
+        Assert.assertEquals(2, wheelProvider.getReferenceCount());
+    }
+}
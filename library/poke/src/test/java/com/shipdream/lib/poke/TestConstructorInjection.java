@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.CircularDependenciesException;
+import com.shipdream.lib.poke.exception.ProvideException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+public class TestConstructorInjection extends BaseTestCases {
+    interface Service {}
+
+    static class ServiceImpl implements Service {
+    }
+
+    static class Repository {
+    }
+
+    @Named("cache")
+    static class CacheRepository extends Repository {
+    }
+
+    interface Controller {}
+
+    static class ControllerImpl implements Controller {
+        private final Service service;
+        private final Repository repository;
+
+        @MyInject
+        private Service injectedService;
+
+        @Inject
+        ControllerImpl(Service service, @Named("cache") Repository repository) {
+            this.service = service;
+            this.repository = repository;
+        }
+    }
+
+    static class View {
+        @MyInject
+        private Controller controller;
+    }
+
+    static class Presenter {
+        @Inject
+        Presenter(Service service) {
+        }
+    }
+
+    interface Chicken {}
+
+    static class ChickenImpl implements Chicken {
+        @Inject
+        ChickenImpl(Egg egg) {
+        }
+    }
+
+    interface Egg {}
+
+    static class EggImpl implements Egg {
+        @Inject
+        EggImpl(Chicken chicken) {
+        }
+    }
+
+    static class Farm {
+        @MyInject
+        private Chicken chicken;
+    }
+
+    private static SimpleGraph graphWithScopedServices(ScopeCache scopeCache) throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Service.class, ServiceImpl.class, scopeCache);
+        graph.register(Repository.class, CacheRepository.class);
+        return graph;
+    }
+
+    @Test
+    public void should_provide_arguments_of_inject_constructor() throws Exception {
+        ScopeCache scopeCache = new ScopeCache();
+        SimpleGraph graph = graphWithScopedServices(scopeCache);
+        graph.register(Controller.class, ControllerImpl.class, scopeCache);
+
+        View view1 = new View();
+        View view2 = new View();
+        graph.inject(view1, MyInject.class);
+        graph.inject(view2, MyInject.class);
+
+        ControllerImpl controller = (ControllerImpl) view1.controller;
+        Assert.assertSame(controller, view2.controller);
+        Assert.assertTrue(controller.repository instanceof CacheRepository);
+        Assert.assertSame(controller.service, controller.injectedService);
+        //Held once by the constructor and twice by the field of the shared controller
+        Assert.assertEquals(3, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.release(view1, MyInject.class);
+        Assert.assertEquals(2, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.release(view2, MyInject.class);
+        Assert.assertEquals(0, graph.getProvider(Service.class, null).getReferenceCount());
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test
+    public void should_release_arguments_of_every_unscoped_instance() throws Exception {
+        ScopeCache scopeCache = new ScopeCache();
+        SimpleGraph graph = graphWithScopedServices(scopeCache);
+        graph.register(Controller.class, ControllerImpl.class);
+
+        View view1 = new View();
+        View view2 = new View();
+        graph.inject(view1, MyInject.class);
+        graph.inject(view2, MyInject.class);
+        Assert.assertNotSame(view1.controller, view2.controller);
+        Assert.assertEquals(4, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.release(view1, MyInject.class);
+        Assert.assertEquals(2, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.release(view2, MyInject.class);
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test
+    public void arguments_should_not_keep_unreleased_instances_reachable() throws Exception {
+        SimpleGraph graph = graphWithScopedServices(new ScopeCache());
+        graph.register(Presenter.class, Presenter.class);
+
+        WeakReference<Presenter> presenterReference = new WeakReference<>(
+                graph.reference(Presenter.class, null, MyInject.class));
+
+        //Collection is up to the VM so give it a few chances
+        for (int i = 0; i < 10 && presenterReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(presenterReference.get());
+    }
+
+    @Test
+    public void should_detect_circular_dependencies_of_constructors() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new ScopeCache();
+        graph.register(Chicken.class, ChickenImpl.class, scopeCache);
+        graph.register(Egg.class, EggImpl.class, scopeCache);
+
+        try {
+            graph.inject(new Farm(), MyInject.class);
+            Assert.fail("Circular constructors should not be provided");
+        } catch (ProvideException e) {
+            Assert.assertTrue(e.getCause() instanceof CircularDependenciesException);
+        }
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+        Assert.assertEquals(0, graph.getProvider(Chicken.class, null).getReferenceCount());
+    }
+
+    @Test(expected = ProvideException.class)
+    public void inject_constructor_should_not_be_called_outside_graph() throws Exception {
+        new ProviderByClassType<>(Controller.class, ControllerImpl.class).get();
+    }
+
+    @Test(expected = ProviderMissingException.class)
+    public void compile_should_detect_missing_arguments_of_constructors() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Controller.class, ControllerImpl.class);
+        graph.compile(MyInject.class);
+    }
+}
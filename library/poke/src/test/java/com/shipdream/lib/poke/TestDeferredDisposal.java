@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestDeferredDisposal extends BaseTestCases {
+    interface Controller {
+    }
+
+    static class ControllerImpl implements Controller {
+    }
+
+    static class Storage {
+    }
+
+    static class Screen {
+        @MyInject
+        Controller controller;
+    }
+
+    private long now;
+    private SimpleGraph graph;
+    private Provider.OnFreedListener onFreedListener;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new SimpleGraph() {
+            @Override
+            long nanoTime() {
+                return now;
+            }
+        };
+        graph.register(Controller.class, ControllerImpl.class, new ScopeCache());
+        graph.register(Storage.class, Storage.class, new ScopeCache());
+        onFreedListener = mock(Provider.OnFreedListener.class);
+        graph.registerProviderFreedListener(onFreedListener);
+        graph.setDisposalGracePeriod(100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void should_cancel_disposal_when_referenced_again_within_grace_period()
+            throws PokeException {
+        Screen oldScreen = new Screen();
+        graph.inject(oldScreen, MyInject.class);
+        graph.release(oldScreen, MyInject.class);
+        verify(onFreedListener, never()).onFreed(any(Provider.class));
+
+        Screen newScreen = new Screen();
+        graph.inject(newScreen, MyInject.class);
+        Assert.assertSame(oldScreen.controller, newScreen.controller);
+
+        graph.disposeDeferred();
+        verify(onFreedListener, never()).onFreed(any(Provider.class));
+        Assert.assertNotNull(graph.getProvider(Controller.class, null).findCachedInstance());
+    }
+
+    @Test
+    public void should_dispose_when_grace_period_passed_on_next_release() throws PokeException {
+        Screen screen = new Screen();
+        graph.inject(screen, MyInject.class);
+        Controller controller = screen.controller;
+        graph.release(screen, MyInject.class);
+
+        now = TimeUnit.MILLISECONDS.toNanos(150);
+        Storage storage = graph.reference(Storage.class, null, MyInject.class);
+        graph.dereference(storage, Storage.class, null, MyInject.class);
+        //Only the controller has passed its grace period
+        verify(onFreedListener, times(1)).onFreed(any(Provider.class));
+
+        graph.inject(screen, MyInject.class);
+        Assert.assertNotSame(controller, screen.controller);
+    }
+
+    @Test
+    public void should_dispose_all_deferred_when_grace_period_is_turned_off() throws PokeException {
+        Screen screen = new Screen();
+        graph.inject(screen, MyInject.class);
+        graph.release(screen, MyInject.class);
+        Storage storage = graph.reference(Storage.class, null, MyInject.class);
+        graph.dereference(storage, Storage.class, null, MyInject.class);
+        verify(onFreedListener, never()).onFreed(any(Provider.class));
+
+        graph.setDisposalGracePeriod(0, TimeUnit.MILLISECONDS);
+        verify(onFreedListener, times(2)).onFreed(any(Provider.class));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.CircularDependenciesException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestGraphCompile extends BaseTestCases {
+    interface Service {}
+
+    static class ServiceImpl implements Service {
+    }
+
+    interface Controller {}
+
+    static class ControllerImpl implements Controller {
+        @MyInject
+        private Service service;
+    }
+
+    static class View {
+        @MyInject
+        private Controller controller;
+
+        @MyInject
+        private Service service;
+    }
+
+    interface Chicken {}
+
+    static class ChickenImpl implements Chicken {
+        @MyInject
+        private Egg egg;
+    }
+
+    interface Egg {}
+
+    static class EggImpl implements Egg {
+        @MyInject
+        private Chicken chicken;
+    }
+
+    static class Farm {
+        @MyInject
+        private Chicken chicken;
+    }
+
+    @Test
+    public void compiled_graph_should_inject_and_release_with_reference_counts() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new ScopeCache();
+        graph.register(Service.class, ServiceImpl.class, scopeCache);
+        graph.register(Controller.class, ControllerImpl.class, scopeCache);
+        graph.compile(MyInject.class);
+
+        View view1 = new View();
+        View view2 = new View();
+        graph.inject(view1, MyInject.class);
+        graph.inject(view2, MyInject.class);
+
+        Assert.assertSame(view1.controller, view2.controller);
+        Assert.assertSame(view1.service, ((ControllerImpl) view1.controller).service);
+        Assert.assertEquals(2, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(4, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.release(view1, MyInject.class);
+        Assert.assertEquals(1, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(2, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.release(view2, MyInject.class);
+        Assert.assertEquals(0, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(0, graph.getProvider(Service.class, null).getReferenceCount());
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test(expected = CircularDependenciesException.class)
+    public void compile_should_detect_circular_dependencies_of_unscoped_providers() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Chicken.class, ChickenImpl.class);
+        graph.register(Egg.class, EggImpl.class);
+        graph.compile(MyInject.class);
+    }
+
+    @Test
+    public void compiled_graph_should_inject_circular_dependencies_of_scoped_providers()
+            throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new ScopeCache();
+        graph.register(Chicken.class, ChickenImpl.class, scopeCache);
+        graph.register(Egg.class, EggImpl.class, scopeCache);
+        graph.compile(MyInject.class);
+
+        Farm farm = new Farm();
+        graph.inject(farm, MyInject.class);
+
+        ChickenImpl chicken = (ChickenImpl) farm.chicken;
+        Assert.assertSame(chicken, ((EggImpl) chicken.egg).chicken);
+
+        graph.release(farm, MyInject.class);
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test(expected = ProviderMissingException.class)
+    public void compile_should_detect_missing_providers() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Controller.class, ControllerImpl.class);
+        graph.compile(MyInject.class);
+    }
+
+    @Test(expected = ProviderMissingException.class)
+    public void compiled_graph_should_raise_missing_provider_of_root_target() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Service.class, ServiceImpl.class);
+        graph.compile(MyInject.class);
+
+        graph.inject(new View(), MyInject.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compiled_graph_should_not_allow_registering() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Service.class, ServiceImpl.class);
+        graph.compile(MyInject.class);
+
+        graph.register(Controller.class, ControllerImpl.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registry_of_compiled_graph_should_not_allow_registering() throws Exception {
+        ProviderFinderByRegistry registry = new ProviderFinderByRegistry();
+        SimpleGraph graph = new SimpleGraph(registry);
+        graph.register(Service.class, ServiceImpl.class);
+        graph.compile(MyInject.class);
+
+        registry.register(Controller.class, ControllerImpl.class);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+
+import javax.inject.Qualifier;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestGraphProviderCache extends BaseTestCases {
+    @Qualifier
+    @Documented
+    @Retention(RUNTIME)
+    @interface Google {
+    }
+
+    interface Os {
+    }
+
+    static class iOs implements Os {
+    }
+
+    @Google
+    static class Android implements Os {
+    }
+
+    static class Linux implements Os {
+    }
+
+    static class Device {
+        @MyInject
+        Os os;
+
+        @Google
+        @MyInject
+        Os google;
+    }
+
+    @Test
+    public void should_not_look_up_registry_again_once_provider_resolved() throws PokeException {
+        ProviderFinderByRegistry registry = spy(new ProviderFinderByRegistry());
+        SimpleGraph graph = new SimpleGraph(registry);
+        graph.register(Os.class, iOs.class);
+        graph.register(Os.class, Android.class);
+
+        for (int i = 0; i < 3; i++) {
+            Device device = new Device();
+            graph.inject(device, MyInject.class);
+            Assert.assertTrue(device.os instanceof iOs);
+            Assert.assertTrue(device.google instanceof Android);
+            graph.release(device, MyInject.class);
+        }
+
+        verify(registry, times(1)).findProvider(Os.class, null);
+        verify(registry, times(1)).findProvider(Os.class, Android.class.getAnnotation(Google.class));
+    }
+
+    @Test
+    public void should_resolve_again_after_overriding_and_unregistering() throws PokeException {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Os.class, iOs.class);
+
+        Device device = new Device();
+        graph.register(Os.class, Android.class);
+        graph.inject(device, MyInject.class);
+        Assert.assertTrue(device.os instanceof iOs);
+
+        graph.register(Os.class, Linux.class, null, true);
+        graph.inject(device, MyInject.class);
+        Assert.assertTrue(device.os instanceof Linux);
+        //Qualified binding is not affected by overriding the unqualified one
+        Assert.assertTrue(device.google instanceof Android);
+
+        graph.unregister(Os.class, Linux.class);
+        graph.inject(device, MyInject.class);
+        Assert.assertTrue(device.os instanceof iOs);
+    }
+
+    @Test(expected = ProviderMissingException.class)
+    public void should_not_inject_unregistered_provider_resolved_before() throws PokeException {
+        ProviderFinderByRegistry registry = new ProviderFinderByRegistry();
+        SimpleGraph graph = new SimpleGraph(registry);
+        registry.register(Os.class, iOs.class);
+        registry.register(Os.class, Android.class);
+        graph.inject(new Device(), MyInject.class);
+
+        //Unregister through the registry directly rather than the graph
+        registry.unregister(Os.class, iOs.class);
+        graph.inject(new Device(), MyInject.class);
+    }
+}
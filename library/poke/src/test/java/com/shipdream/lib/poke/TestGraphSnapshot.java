@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class TestGraphSnapshot extends BaseTestCases {
+    interface Engine {
+    }
+
+    static class EngineImpl implements Engine {
+        private long mileage;
+    }
+
+    static class Car {
+        @MyInject
+        Engine engine;
+    }
+
+    private SimpleGraph graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new SimpleGraph();
+        graph.register(Engine.class, EngineImpl.class, new ScopeCache());
+    }
+
+    @Test
+    public void snapshot_should_report_references_owners_and_cached_instances()
+            throws PokeException {
+        Car car = new Car();
+        graph.inject(car, MyInject.class);
+
+        GraphSnapshot snapshot = graph.snapshot();
+        Assert.assertEquals(1, snapshot.getProviders().size());
+        GraphSnapshot.ProviderNode engine = snapshot.getProviders().get(0);
+        Assert.assertEquals(Engine.class, engine.getType());
+        Assert.assertEquals("ScopeCache", engine.getScope());
+        Assert.assertEquals(1, engine.getReferenceCount());
+        Assert.assertTrue(engine.getCachedInstance().startsWith(EngineImpl.class.getName() + "@"));
+        Assert.assertTrue(engine.getShallowSize() >= 16);
+        Assert.assertEquals(1, engine.getOwners().size());
+        Assert.assertEquals(Collections.singletonMap("engine", 1),
+                engine.getOwners().get(0).getFieldReferences());
+
+        String json = snapshot.toJson();
+        Assert.assertTrue(json.contains("\"referenceCount\":1"));
+        Assert.assertTrue(json.contains("\"fields\":{\"engine\":1}"));
+        String dot = snapshot.toDot();
+        Assert.assertTrue(dot.startsWith("digraph poke {"));
+        Assert.assertTrue(dot.contains("-> p0 [label=\"engine\"]"));
+
+        graph.release(car, MyInject.class);
+        engine = graph.snapshot().getProviders().get(0);
+        Assert.assertEquals(0, engine.getReferenceCount());
+        Assert.assertNull(engine.getCachedInstance());
+        Assert.assertTrue(engine.getOwners().isEmpty());
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestImplClassLocatorByPattern extends BaseTestCases {
+    interface Unimplemented {
+    }
+
+    @Test
+    public void missing_impl_class_should_be_cached() throws Exception {
+        ImplClassLocatorByPattern locator = new ImplClassLocatorByPattern();
+
+        try {
+            locator.locateImpl(Unimplemented.class);
+            Assert.fail("Unimplemented contract should not be located");
+        } catch (ImplClassNotFoundException e) {
+            Assert.assertTrue(e.getCause() instanceof ClassNotFoundException);
+        }
+
+        try {
+            locator.locateImpl(Unimplemented.class);
+            Assert.fail("Unimplemented contract should not be located");
+        } catch (ImplClassNotFoundException e) {
+            //The cached miss doesn't look the class up again
+            Assert.assertNull(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+public class TestInjectionReceipt extends BaseTestCases {
+    interface Engine {
+    }
+
+    static class EngineImpl implements Engine {
+    }
+
+    static class Car {
+        @MyInject
+        Engine engine;
+    }
+
+    static class Garage {
+        @MyInject
+        Car car;
+    }
+
+    @Target(ElementType.FIELD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Spare {
+    }
+
+    static class Workshop {
+        @MyInject
+        Car car;
+
+        @Spare
+        Engine spareEngine;
+    }
+
+    private SimpleGraph graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new SimpleGraph();
+        graph.register(Engine.class, EngineImpl.class, new ScopeCache());
+        graph.register(Car.class, Car.class, new ScopeCache());
+    }
+
+    @Test
+    public void release_should_replay_what_injection_retained_without_reading_fields()
+            throws PokeException {
+        Garage garage = new Garage();
+        graph.inject(garage, MyInject.class);
+        Car car = garage.car;
+
+        //Fields cleared by the owner don't stop its instances from being released
+        garage.car = null;
+        car.engine = null;
+        graph.release(garage, MyInject.class);
+
+        Assert.assertEquals(0, graph.getProvider(Car.class, null).getReferenceCount());
+        Assert.assertEquals(0, graph.getProvider(Engine.class, null).getReferenceCount());
+        Assert.assertNull(graph.getProvider(Car.class, null).findCachedInstance());
+    }
+
+    @Test
+    public void repeated_injections_should_be_released_one_by_one() throws PokeException {
+        Garage garage = new Garage();
+        graph.inject(garage, MyInject.class);
+        graph.inject(garage, MyInject.class);
+        Provider engineProvider = graph.getProvider(Engine.class, null);
+        Assert.assertEquals(2, engineProvider.getReferenceCount());
+
+        graph.release(garage, MyInject.class);
+        Assert.assertEquals(1, engineProvider.getReferenceCount());
+        Assert.assertNotNull(engineProvider.findCachedInstance());
+
+        graph.release(garage, MyInject.class);
+        Assert.assertEquals(0, engineProvider.getReferenceCount());
+
+        //Nothing left to release
+        graph.release(garage, MyInject.class);
+        Assert.assertEquals(0, engineProvider.getReferenceCount());
+    }
+
+    @Test
+    public void release_should_replay_the_receipt_of_the_same_inject_annotation()
+            throws PokeException {
+        Workshop workshop = new Workshop();
+        graph.inject(workshop, MyInject.class);
+        graph.inject(workshop, Spare.class);
+        Provider carProvider = graph.getProvider(Car.class, null);
+        Provider engineProvider = graph.getProvider(Engine.class, null);
+        Assert.assertEquals(1, carProvider.getReferenceCount());
+        Assert.assertEquals(2, engineProvider.getReferenceCount());
+
+        graph.release(workshop, MyInject.class);
+        Assert.assertEquals(0, carProvider.getReferenceCount());
+        Assert.assertEquals(1, engineProvider.getReferenceCount());
+
+        graph.release(workshop, Spare.class);
+        Assert.assertEquals(0, engineProvider.getReferenceCount());
+        Assert.assertNull(engineProvider.findCachedInstance());
+    }
+}
@@ -16,23 +16,24 @@
 
 package com.shipdream.lib.poke;
 
-import java.lang.annotation.Annotation;
+import org.junit.Assert;
+import org.junit.Test;
 
-import javax.inject.Named;
-
-class PokeHelper {
-    static String makeProviderKey(Class type, Annotation qualifier) {
-        String qualifierStr;
-        if (qualifier == null) {
-            qualifierStr = "null";
-        } else {
-            if (qualifier.annotationType() == Named.class) {
-                qualifierStr = qualifier.toString() + ":" + ((Named) qualifier).value();
-            } else {
-                qualifierStr = qualifier.toString();
-            }
-        }
-        return type.getName() + "@" + qualifierStr;
+public class TestInjectionSiteAccess extends BaseTestCases {
+    static class Holder {
+        @MyInject
+        private Object value;
     }
 
+    @Test
+    public void site_should_set_and_get_private_field() {
+        InjectionPlan.Site site = InjectionPlan.build(Holder.class, MyInject.class).sites[0];
+        Holder holder = new Holder();
+        Object value = new Object();
+
+        site.set(holder, value);
+
+        Assert.assertSame(value, holder.value);
+        Assert.assertSame(value, site.get(holder));
+    }
 }
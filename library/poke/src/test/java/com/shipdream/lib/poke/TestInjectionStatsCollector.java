@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestInjectionStatsCollector extends BaseTestCases {
+    interface Service {}
+
+    static class ServiceImpl implements Service {
+    }
+
+    interface Controller {}
+
+    static class ControllerImpl implements Controller {
+        @MyInject
+        private Service service;
+    }
+
+    static class View {
+        @MyInject
+        private Controller controller;
+    }
+
+    private SimpleGraph graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new SimpleGraph();
+        graph.register(Service.class, ServiceImpl.class);
+        graph.register(Controller.class, ControllerImpl.class, new ScopeCache());
+    }
+
+    @Test
+    public void detailed_monitor_should_be_notified_in_order_with_depth() throws Exception {
+        final List<String> events = new ArrayList<>();
+        graph.registerMonitor(new Graph.DetailedMonitor() {
+            @Override
+            public void onInject(Object target) {
+                events.add("inject " + target.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onProviderResolved(Provider provider, int depth) {
+                events.add("resolved " + provider.type().getSimpleName() + " " + depth);
+            }
+
+            @Override
+            public void onCacheHit(Provider provider, Object instance, int depth) {
+                events.add("hit " + provider.type().getSimpleName() + " " + depth);
+            }
+
+            @Override
+            public void onCacheMiss(Provider provider, int depth) {
+                events.add("miss " + provider.type().getSimpleName() + " " + depth);
+            }
+
+            @Override
+            public void onCreateInstanceStart(Provider provider, int depth) {
+                events.add("create " + provider.type().getSimpleName() + " " + depth);
+            }
+
+            @Override
+            public void onCreateInstanceEnd(Provider provider, Object instance, int depth,
+                                            long elapsedNanos) {
+                events.add("created " + provider.type().getSimpleName() + " " + depth);
+            }
+
+            @Override
+            public void onProviderInjected(Provider provider, Object instance, int depth,
+                                           long elapsedNanos) {
+                Assert.assertTrue(elapsedNanos >= 0);
+                events.add("injected " + provider.type().getSimpleName() + " " + depth);
+            }
+        });
+
+        graph.inject(new View(), MyInject.class);
+        graph.inject(new View(), MyInject.class);
+
+        String[] expected = {
+                "inject View",
+                "resolved Controller 1",
+                "miss Controller 1",
+                "create Controller 1",
+                "created Controller 1",
+                "resolved Service 2",
+                "create Service 2",
+                "created Service 2",
+                "injected Service 2",
+                "injected Controller 1",
+                "inject View",
+                "resolved Controller 1",
+                "hit Controller 1",
+                "resolved Service 2",
+                "create Service 2",
+                "created Service 2",
+                "injected Service 2",
+                "injected Controller 1"
+        };
+        Assert.assertArrayEquals(expected, events.toArray());
+    }
+
+    @Test
+    public void collector_should_count_per_type() throws Exception {
+        InjectionStatsCollector collector = new InjectionStatsCollector();
+        graph.registerMonitor(collector);
+
+        graph.inject(new View(), MyInject.class);
+        graph.inject(new View(), MyInject.class);
+        graph.inject(new View(), MyInject.class);
+
+        InjectionStatsCollector.Stats controllerStats = collector.getStats(Controller.class);
+        Assert.assertEquals(3, controllerStats.getResolveCount());
+        Assert.assertEquals(1, controllerStats.getCreationCount());
+        Assert.assertEquals(2, controllerStats.getCacheHits());
+        Assert.assertEquals(1, controllerStats.getCacheMisses());
+        Assert.assertEquals(1, controllerStats.getMaxDepth());
+        Assert.assertEquals(3, controllerStats.getInjectionLatency().getCount());
+
+        InjectionStatsCollector.Stats serviceStats = collector.getStats(Service.class);
+        Assert.assertEquals(3, serviceStats.getCreationCount());
+        Assert.assertEquals(0, serviceStats.getCacheHits());
+        Assert.assertEquals(2, serviceStats.getMaxDepth());
+
+        Assert.assertNull(collector.getStats(View.class));
+        Assert.assertTrue(collector.report().contains(Controller.class.getName()));
+
+        graph.unregisterMonitor(collector);
+        graph.inject(new View(), MyInject.class);
+        Assert.assertEquals(3, controllerStats.getResolveCount());
+
+        collector.reset();
+        Assert.assertTrue(collector.getAllStats().isEmpty());
+    }
+
+    @Test
+    public void histogram_should_estimate_percentiles_by_power_of_two_buckets() {
+        InjectionStatsCollector.Histogram histogram = new InjectionStatsCollector.Histogram();
+        Assert.assertEquals(0, histogram.getPercentileNanos(50));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(5000, histogram.getMaxNanos());
+        Assert.assertEquals((99 * 100 + 5000) / 100, histogram.getMeanNanos());
+        //100 falls into [64, 128)
+        Assert.assertEquals(127, histogram.getPercentileNanos(50));
+        Assert.assertEquals(127, histogram.getPercentileNanos(99));
+        Assert.assertEquals(5000, histogram.getPercentileNanos(100));
+        Assert.assertEquals(99, histogram.getBucketCounts()[7]);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+import com.shipdream.lib.poke.exception.ProviderMissingException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestIterativeTraversal extends BaseTestCases {
+    interface Engine {
+    }
+
+    static class EngineImpl implements Engine {
+    }
+
+    interface Missing {
+    }
+
+    static class Car {
+        @MyInject
+        Engine engine;
+    }
+
+    static class Garage {
+        @MyInject
+        Car car;
+    }
+
+    static class BrokenGarage {
+        @MyInject
+        Car car;
+        @MyInject
+        Missing missing;
+    }
+
+    private SimpleGraph graph;
+    private List<String> events;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        graph = new SimpleGraph();
+        graph.register(Engine.class, EngineImpl.class, new ScopeCache());
+        graph.register(Car.class, Car.class, new ScopeCache());
+        events = new ArrayList<>();
+
+        graph.getProvider(Engine.class, null).registerOnInjectedListener(
+                new Provider.OnInjectedListener() {
+                    @Override
+                    public void onInjected(Object object) {
+                        events.add("injected engine");
+                    }
+                });
+        graph.getProvider(Car.class, null).registerOnInjectedListener(
+                new Provider.OnInjectedListener() {
+                    @Override
+                    public void onInjected(Object object) {
+                        events.add("injected car");
+                    }
+                });
+        graph.registerProviderFreedListener(new Provider.OnFreedListener() {
+            @Override
+            public void onFreed(Provider provider) {
+                events.add("freed " + provider.type().getSimpleName());
+            }
+        });
+    }
+
+    @Test
+    public void dependencies_should_complete_before_their_owners() throws PokeException {
+        Garage garage = new Garage();
+        graph.inject(garage, MyInject.class);
+        graph.release(garage, MyInject.class);
+
+        Assert.assertEquals(Arrays.asList("injected engine", "injected car", "freed Engine",
+                "freed Car"), events);
+    }
+
+    @Test
+    public void failed_injection_should_not_leave_frames_behind() throws PokeException {
+        try {
+            graph.inject(new BrokenGarage(), MyInject.class);
+            Assert.fail("Missing binding should fail the injection");
+        } catch (ProviderMissingException e) {
+            //Expected
+        }
+
+        //The work stack reused by the thread starts over
+        Garage garage = new Garage();
+        graph.inject(garage, MyInject.class);
+        Assert.assertNotNull(garage.car.engine);
+    }
+}
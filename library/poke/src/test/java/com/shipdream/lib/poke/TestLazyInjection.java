@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.inject.Provider;
+
+public class TestLazyInjection extends BaseTestCases {
+    interface Service {}
+
+    static class ServiceImpl implements Service {
+    }
+
+    interface Controller {}
+
+    static class ControllerImpl implements Controller {
+        @MyInject
+        private Service service;
+    }
+
+    static class View {
+        @MyInject
+        private Lazy<Controller> controller;
+
+        @MyInject
+        private Provider<Controller> controllerProvider;
+    }
+
+    interface Chicken {}
+
+    static class ChickenImpl implements Chicken {
+        @MyInject
+        private Lazy<Egg> egg;
+    }
+
+    interface Egg {}
+
+    static class EggImpl implements Egg {
+        @MyInject
+        private Chicken chicken;
+    }
+
+    static class Farm {
+        @MyInject
+        private Chicken chicken;
+    }
+
+    @Test
+    public void lazy_instance_should_be_provided_and_retained_on_first_get() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new ScopeCache();
+        graph.register(Service.class, ServiceImpl.class, scopeCache);
+        graph.register(Controller.class, ControllerImpl.class, scopeCache);
+
+        View view = new View();
+        graph.inject(view, MyInject.class);
+        Assert.assertNotNull(view.controller);
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+
+        ControllerImpl controller = (ControllerImpl) view.controller.get();
+        Assert.assertSame(controller, view.controller.get());
+        Assert.assertNotNull(controller.service);
+        Assert.assertEquals(1, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(1, graph.getProvider(Service.class, null).getReferenceCount());
+
+        //javax.inject.Provider fields are injected lazily as well
+        Assert.assertSame(controller, view.controllerProvider.get());
+        Assert.assertEquals(2, graph.getProvider(Controller.class, null).getReferenceCount());
+
+        graph.release(view, MyInject.class);
+        Assert.assertEquals(0, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(0, graph.getProvider(Service.class, null).getReferenceCount());
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test
+    public void releasing_owner_should_not_provide_lazy_instance_never_got() throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new ScopeCache();
+        graph.register(Service.class, ServiceImpl.class, scopeCache);
+        graph.register(Controller.class, ControllerImpl.class, scopeCache);
+
+        View view = new View();
+        graph.inject(view, MyInject.class);
+        graph.release(view, MyInject.class);
+
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+        Assert.assertEquals(0, graph.getProvider(Controller.class, null).getReferenceCount());
+
+        try {
+            view.controller.get();
+            Assert.fail("Lazy instance of released owner should not be provided");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void lazy_instance_should_be_released_after_owner_released_as_many_times_as_injected()
+            throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new ScopeCache();
+        graph.register(Service.class, ServiceImpl.class, scopeCache);
+        graph.register(Controller.class, ControllerImpl.class, scopeCache);
+
+        View view = new View();
+        graph.inject(view, MyInject.class);
+        Lazy<Controller> lazy = view.controller;
+        Controller controller = lazy.get();
+
+        graph.inject(view, MyInject.class);
+        Assert.assertSame(lazy, view.controller);
+        Assert.assertEquals(1, graph.getProvider(Controller.class, null).getReferenceCount());
+
+        graph.release(view, MyInject.class);
+        Assert.assertSame(controller, view.controller.get());
+
+        graph.release(view, MyInject.class);
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+
+        //Injected again after fully released, a new instance is provided
+        graph.inject(view, MyInject.class);
+        Assert.assertNotSame(controller, view.controller.get());
+        graph.release(view, MyInject.class);
+        Assert.assertTrue(scopeCache.cache.isEmpty());
+    }
+
+    @Test
+    public void lazy_field_should_break_circular_dependencies_of_unscoped_providers()
+            throws Exception {
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Chicken.class, ChickenImpl.class);
+        graph.register(Egg.class, EggImpl.class);
+        graph.compile(MyInject.class);
+
+        Farm farm = new Farm();
+        graph.inject(farm, MyInject.class);
+
+        ChickenImpl chicken = (ChickenImpl) farm.chicken;
+        EggImpl egg = (EggImpl) chicken.egg.get();
+        Assert.assertNotNull(egg.chicken);
+        Assert.assertNotSame(chicken, egg.chicken);
+
+        graph.release(farm, MyInject.class);
+        Assert.assertEquals(0, graph.getProvider(Egg.class, null).getReferenceCount());
+        Assert.assertEquals(0, graph.getProvider(Chicken.class, null).getReferenceCount());
+    }
+}
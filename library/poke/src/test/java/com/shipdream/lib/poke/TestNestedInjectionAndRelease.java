@@ -25,6 +25,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import javax.inject.Singleton;
 
 import static org.mockito.Mockito.mock;
@@ -350,4 +352,31 @@ public class TestNestedInjectionAndRelease extends BaseTestCases {
         Assert.assertEquals(0, graph.getProvider(Controller.class, null).getReferenceCount());
         Assert.assertEquals(0, graph.getProvider(Service.class, null).getReferenceCount());
     }
+
+    @Test
+    public void should_inject_and_release_batch_of_targets_with_nested_injection()
+            throws ProvideException, ProviderConflictException, CircularDependenciesException, ProviderMissingException {
+        ViewA viewA = new ViewA();
+        ViewB viewB = new ViewB();
+        ViewC viewC = new ViewC();
+        graph.injectAll(Arrays.asList(viewA, viewB, viewC), MyInject.class);
+
+        Assert.assertTrue(viewA.controller == viewB.controller);
+        Assert.assertTrue(viewA.controller == viewC.controller);
+        Assert.assertTrue(((ControllerImpl) viewA.controller).service == serviceMock);
+        Assert.assertEquals(3, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(3, graph.getProvider(Service.class, null).getReferenceCount());
+
+        graph.releaseAll(Arrays.asList(viewA, viewB), MyInject.class);
+        Assert.assertEquals(1, graph.getProvider(Controller.class, null).getReferenceCount());
+        Assert.assertEquals(1, graph.getProvider(Service.class, null).getReferenceCount());
+        verify(controllerOnFreed, times(0)).onFreed();
+        verify(serviceOnFreed, times(0)).onFreed();
+
+        graph.releaseAll(Arrays.asList(viewC), MyInject.class);
+        Assert.assertNull(cache.findCacheItem(Controller.class, null));
+        Assert.assertNull(cache.findCacheItem(Service.class, null));
+        verify(controllerOnFreed, times(1)).onFreed();
+        verify(serviceOnFreed, times(1)).onFreed();
+    }
 }
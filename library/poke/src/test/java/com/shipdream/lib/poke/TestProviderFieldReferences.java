@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.ProvideException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+public class TestProviderFieldReferences extends BaseTestCases {
+    static class Owner {
+        Object a;
+        Object b;
+        Object c;
+
+        //Every owner equals each other to make sure owners are tracked by identity
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Owner;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    private static Provider<Object> newProvider() {
+        return new Provider<Object>(Object.class) {
+            @Override
+            protected Object createInstance() throws ProvideException {
+                return new Object();
+            }
+        };
+    }
+
+    @Test
+    public void should_count_references_per_owner_and_field() throws Exception {
+        Provider<Object> provider = newProvider();
+        Field a = Owner.class.getDeclaredField("a");
+        Field b = Owner.class.getDeclaredField("b");
+        Field c = Owner.class.getDeclaredField("c");
+        Owner owner1 = new Owner();
+        Owner owner2 = new Owner();
+
+        provider.retain(owner1, a);
+        provider.retain(owner1, a);
+        provider.retain(owner1, b);
+        provider.retain(owner1, c);
+        provider.retain(owner2, a);
+
+        Assert.assertEquals(5, provider.getReferenceCount());
+        Assert.assertEquals(2, provider.getReferenceCount(owner1, a));
+        Assert.assertEquals(1, provider.getReferenceCount(owner1, b));
+        Assert.assertEquals(1, provider.getReferenceCount(owner1, c));
+        Assert.assertEquals(1, provider.getReferenceCount(owner2, a));
+        Assert.assertEquals(0, provider.getReferenceCount(owner2, b));
+
+        //Fields reflected again are different instances of the same fields
+        provider.release(owner1, Owner.class.getDeclaredField("b"));
+        Assert.assertEquals(0, provider.getReferenceCount(owner1, b));
+        Assert.assertEquals(1, provider.getReferenceCount(owner1, c));
+
+        provider.release(owner1, a);
+        provider.release(owner1, a);
+        provider.release(owner1, c);
+        Assert.assertEquals(1, provider.getReferenceCount());
+        Assert.assertEquals(1, provider.owners.size());
+
+        provider.release(owner2, a);
+        Assert.assertEquals(0, provider.getReferenceCount());
+        Assert.assertTrue(provider.owners.isEmpty());
+    }
+
+    @Test
+    public void releasing_unreferenced_field_should_not_change_reference_count() throws Exception {
+        Provider<Object> provider = newProvider();
+        Owner owner = new Owner();
+        provider.retain(owner, Owner.class.getDeclaredField("a"));
+
+        provider.release(owner, Owner.class.getDeclaredField("b"));
+        provider.release(new Owner(), Owner.class.getDeclaredField("a"));
+
+        Assert.assertEquals(1, provider.getReferenceCount());
+        Assert.assertEquals(1, provider.getReferenceCount(owner, Owner.class.getDeclaredField("a")));
+    }
+}
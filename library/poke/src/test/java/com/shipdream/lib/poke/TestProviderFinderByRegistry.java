@@ -29,6 +29,7 @@ import org.junit.Test;
 import java.lang.annotation.Annotation;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
+import java.lang.ref.WeakReference;
 
 import javax.inject.Named;
 import javax.inject.Qualifier;
@@ -1028,4 +1029,21 @@ public class TestProviderFinderByRegistry extends BaseTestCases {
         verify(registry).unregister(eq(provider));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void registry_should_not_keep_graphs_using_it_reachable() throws Exception {
+        ProviderFinderByRegistry registry = new ProviderFinderByRegistry();
+        SimpleGraph graph = new SimpleGraph(registry);
+        WeakReference<SimpleGraph> graphReference = new WeakReference<>(graph);
+        graph = null;
+
+        //Collection is up to the VM so give it a few chances
+        for (int i = 0; i < 50 && graphReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(graphReference.get());
+
+        //Listeners collected are dropped without breaking registration
+        registry.register(Os.class, iOs.class);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TestProviderIds extends BaseTestCases {
+    static class Engine {
+    }
+
+    @Test
+    public void providers_alive_should_have_distinct_ids() {
+        List<Provider> providers = new ArrayList<>();
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            Provider provider = new ProviderByClassType<>(Engine.class, Engine.class);
+            providers.add(provider);
+            Assert.assertTrue(ids.add(provider.id));
+        }
+    }
+
+    @Test
+    public void ids_of_collected_providers_should_be_reused() throws InterruptedException {
+        List<Provider> providers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            providers.add(new ProviderByClassType<>(Engine.class, Engine.class));
+        }
+        int maxId = 0;
+        for (Provider provider : providers) {
+            maxId = Math.max(maxId, provider.id);
+        }
+        providers.clear();
+
+        //Collection is up to the VM so give it a few chances
+        boolean reused = false;
+        for (int i = 0; i < 50 && !reused; i++) {
+            System.gc();
+            Thread.sleep(10);
+            reused = new ProviderByClassType<>(Engine.class, Engine.class).id <= maxId;
+        }
+        Assert.assertTrue(reused);
+    }
+}
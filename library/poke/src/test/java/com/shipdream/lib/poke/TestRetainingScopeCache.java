@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.exception.PokeException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestRetainingScopeCache extends BaseTestCases {
+    interface Controller {
+    }
+
+    static class ListController implements Controller {
+    }
+
+    interface Repository {
+    }
+
+    static class RepositoryImpl implements Repository {
+    }
+
+    static class DetailController {
+        @MyInject
+        Repository repository;
+    }
+
+    static class ListScreen {
+        @MyInject
+        Controller controller;
+    }
+
+    static class DetailScreen {
+        @MyInject
+        DetailController controller;
+    }
+
+    @Test
+    public void lru_cache_should_reuse_idle_instance_and_free_least_recently_released()
+            throws PokeException {
+        SimpleGraph graph = new SimpleGraph();
+        ScopeCache scopeCache = new LruScopeCache(1);
+        graph.register(Controller.class, ListController.class, scopeCache);
+        graph.register(DetailController.class, DetailController.class, scopeCache);
+        graph.register(Repository.class, RepositoryImpl.class, scopeCache);
+        Provider.OnFreedListener onFreedListener = mock(Provider.OnFreedListener.class);
+        graph.registerProviderFreedListener(onFreedListener);
+
+        ListScreen listScreen = new ListScreen();
+        graph.inject(listScreen, MyInject.class);
+        Controller listController = listScreen.controller;
+        graph.release(listScreen, MyInject.class);
+        verify(onFreedListener, never()).onFreed(any(Provider.class));
+
+        //Back to the list screen again reuses the idle controller
+        graph.inject(listScreen, MyInject.class);
+        Assert.assertSame(listController, listScreen.controller);
+        graph.release(listScreen, MyInject.class);
+
+        //Detail controller and its repository become idle and push the list controller out
+        DetailScreen detailScreen = new DetailScreen();
+        graph.inject(detailScreen, MyInject.class);
+        graph.release(detailScreen, MyInject.class);
+        verify(onFreedListener, times(2)).onFreed(any(Provider.class));
+
+        graph.inject(listScreen, MyInject.class);
+        Assert.assertNotSame(listController, listScreen.controller);
+    }
+
+    @Test
+    public void ttl_cache_should_free_expired_idle_instance_on_next_release() throws PokeException {
+        final long[] now = {0};
+        ScopeCache scopeCache = new TtlScopeCache(10, TimeUnit.SECONDS) {
+            @Override
+            protected long nanoTime() {
+                return now[0];
+            }
+        };
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Controller.class, ListController.class, scopeCache);
+        graph.register(Repository.class, RepositoryImpl.class, scopeCache);
+        Provider.OnFreedListener onFreedListener = mock(Provider.OnFreedListener.class);
+        graph.registerProviderFreedListener(onFreedListener);
+
+        ListScreen listScreen = new ListScreen();
+        graph.inject(listScreen, MyInject.class);
+        Controller controller = listScreen.controller;
+        graph.release(listScreen, MyInject.class);
+
+        now[0] = TimeUnit.SECONDS.toNanos(5);
+        graph.inject(listScreen, MyInject.class);
+        Assert.assertSame(controller, listScreen.controller);
+        graph.release(listScreen, MyInject.class);
+
+        now[0] = TimeUnit.SECONDS.toNanos(20);
+        Repository repository = graph.reference(Repository.class, null, MyInject.class);
+        graph.dereference(repository, Repository.class, null, MyInject.class);
+        //The controller has been idle for 15 seconds
+        verify(onFreedListener, times(1)).onFreed(any(Provider.class));
+        Assert.assertNull(graph.getProvider(Controller.class, null).findCachedInstance());
+    }
+
+    @Test
+    public void soft_cache_should_free_idle_instances_once_soft_references_are_cleared()
+            throws PokeException {
+        SoftScopeCache scopeCache = new SoftScopeCache();
+        SimpleGraph graph = new SimpleGraph();
+        graph.register(Controller.class, ListController.class, scopeCache);
+        graph.register(Repository.class, RepositoryImpl.class, scopeCache);
+        Provider.OnFreedListener onFreedListener = mock(Provider.OnFreedListener.class);
+        graph.registerProviderFreedListener(onFreedListener);
+
+        ListScreen listScreen = new ListScreen();
+        graph.inject(listScreen, MyInject.class);
+        Controller controller = listScreen.controller;
+        graph.release(listScreen, MyInject.class);
+
+        Repository repository = graph.reference(Repository.class, null, MyInject.class);
+        graph.dereference(repository, Repository.class, null, MyInject.class);
+        verify(onFreedListener, never()).onFreed(any(Provider.class));
+
+        scopeCache.clearSentinel();
+        graph.reference(Repository.class, null, MyInject.class);
+        graph.dereference(repository, Repository.class, null, MyInject.class);
+        verify(onFreedListener, times(2)).onFreed(any(Provider.class));
+
+        graph.inject(listScreen, MyInject.class);
+        Assert.assertNotSame(controller, listScreen.controller);
+    }
+}
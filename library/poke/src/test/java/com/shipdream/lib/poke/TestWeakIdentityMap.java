@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+public class TestWeakIdentityMap extends BaseTestCases {
+    @Test
+    public void keys_should_be_compared_by_identity() {
+        WeakIdentityMap<String, Integer> map = new WeakIdentityMap<>();
+        String key = new String("key");
+        map.put(key, 1);
+
+        Assert.assertEquals(Integer.valueOf(1), map.get(key));
+        Assert.assertNull(map.get(new String("key")));
+        Assert.assertEquals(Integer.valueOf(1), map.put(key, 2));
+        Assert.assertEquals(Integer.valueOf(2), map.remove(key));
+        Assert.assertNull(map.get(key));
+    }
+
+    @Test
+    public void map_should_hold_many_keys() {
+        WeakIdentityMap<Object, Integer> map = new WeakIdentityMap<>();
+        Object[] keys = new Object[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Object();
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(Integer.valueOf(i), map.get(keys[i]));
+        }
+        map.clear();
+        Assert.assertNull(map.get(keys[0]));
+    }
+
+    @Test
+    public void map_should_not_stop_keys_and_their_values_from_being_collected()
+            throws InterruptedException {
+        WeakIdentityMap<Object, Object> map = new WeakIdentityMap<>();
+        Object key = new Object();
+        Object value = new Object();
+        map.put(key, value);
+        WeakReference<Object> keyReference = new WeakReference<>(key);
+        WeakReference<Object> valueReference = new WeakReference<>(value);
+        key = null;
+        value = null;
+
+        //Collection is up to the VM so give it a few chances. Values are dropped along with the
+        //entries of their keys on the next access.
+        for (int i = 0; i < 50 && valueReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+            map.get(this);
+        }
+        Assert.assertNull(keyReference.get());
+        Assert.assertNull(valueReference.get());
+    }
+}
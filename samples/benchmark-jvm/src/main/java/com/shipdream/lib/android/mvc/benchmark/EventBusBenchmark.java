@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.android.mvc.benchmark;
+
+import com.shipdream.lib.android.mvc.event.bus.internal.EventBusImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link EventBusImpl#post(Object)} dispatching an event to a number of subscribers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EventBusBenchmark {
+    @Param({"1", "10", "100"})
+    public int subscriberCount;
+
+    private EventBusImpl eventBus;
+    private Event event;
+
+    @Setup
+    public void setUp() {
+        eventBus = new EventBusImpl();
+        for (int i = 0; i < subscriberCount; i++) {
+            eventBus.register(new Subscriber());
+            //Subscribers of other events should not slow down posting
+            eventBus.register(new OtherSubscriber());
+        }
+        event = new Event();
+    }
+
+    @Benchmark
+    public int post() {
+        eventBus.post(event);
+        return event.received;
+    }
+
+    public static class Event {
+        int received;
+    }
+
+    public static class OtherEvent {
+    }
+
+    public static class Subscriber {
+        public void onEvent(Event event) {
+            event.received++;
+        }
+    }
+
+    public static class OtherSubscriber {
+        public void onEvent(OtherEvent event) {
+        }
+    }
+}
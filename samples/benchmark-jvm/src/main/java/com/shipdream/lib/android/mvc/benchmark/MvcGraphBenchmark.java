@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.android.mvc.benchmark;
+
+import com.shipdream.lib.android.mvc.ModelKeeper;
+import com.shipdream.lib.android.mvc.MvcBean;
+import com.shipdream.lib.android.mvc.MvcGraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+/**
+ * Benchmarks {@link MvcGraph#saveAllModels(ModelKeeper)} and
+ * {@link MvcGraph#restoreAllModels(ModelKeeper)} with 10 live {@link MvcBean}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MvcGraphBenchmark {
+    private ExecutorService executorService;
+    private MvcGraph mvcGraph;
+    private Beans beans;
+    private MapModelKeeper modelKeeper;
+
+    @Setup
+    public void setUp() throws Exception {
+        executorService = Executors.newSingleThreadExecutor();
+        mvcGraph = new MvcGraph(new MvcGraph.BaseDependencies() {
+            @Override
+            protected ExecutorService createExecutorService() {
+                return executorService;
+            }
+        });
+        beans = new Beans();
+        mvcGraph.inject(beans);
+        modelKeeper = new MapModelKeeper();
+        mvcGraph.saveAllModels(modelKeeper);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mvcGraph.release(beans);
+        executorService.shutdown();
+    }
+
+    @Benchmark
+    public Object saveAllModels() {
+        mvcGraph.saveAllModels(modelKeeper);
+        return modelKeeper;
+    }
+
+    @Benchmark
+    public Object restoreAllModels() {
+        mvcGraph.restoreAllModels(modelKeeper);
+        return modelKeeper;
+    }
+
+    static class MapModelKeeper implements ModelKeeper {
+        private final Map<Class, Object> models = new HashMap<>();
+
+        @Override
+        public <T> void saveModel(T model, Class<T> type) {
+            models.put(type, model);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T retrieveModel(Class<T> type) {
+            return (T) models.get(type);
+        }
+    }
+
+    public static class Model {
+        String value;
+    }
+
+    public static abstract class BaseBean extends MvcBean<Model> {
+        @Override
+        public Class<Model> modelType() {
+            return Model.class;
+        }
+    }
+
+    public static class Bean0 extends BaseBean {}
+    public static class Bean1 extends BaseBean {}
+    public static class Bean2 extends BaseBean {}
+    public static class Bean3 extends BaseBean {}
+    public static class Bean4 extends BaseBean {}
+    public static class Bean5 extends BaseBean {}
+    public static class Bean6 extends BaseBean {}
+    public static class Bean7 extends BaseBean {}
+    public static class Bean8 extends BaseBean {}
+    public static class Bean9 extends BaseBean {}
+
+    public static class Beans {
+        @Inject Bean0 bean0;
+        @Inject Bean1 bean1;
+        @Inject Bean2 bean2;
+        @Inject Bean3 bean3;
+        @Inject Bean4 bean4;
+        @Inject Bean5 bean5;
+        @Inject Bean6 bean6;
+        @Inject Bean7 bean7;
+        @Inject Bean8 bean8;
+        @Inject Bean9 bean9;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke;
+
+import com.shipdream.lib.poke.util.ReflectUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+/**
+ * Benchmarks setting and getting a private field through the {@link InjectionPlan.Site} holding
+ * the field opened once against {@link ReflectUtils#setField(Object, Field, Object)} and
+ * {@link ReflectUtils#getFieldValue(Object, Field)} toggling its accessibility on every call. It's
+ * in the package of poke since injection sites are internal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class InjectionSiteBenchmark {
+    private InjectionPlan.Site site;
+    private Field field;
+    private Holder holder;
+    private Object value;
+
+    @Setup
+    public void setUp() throws Exception {
+        site = InjectionPlan.build(Holder.class, Inject.class).sites[0];
+        field = Holder.class.getDeclaredField("value");
+        holder = new Holder();
+        value = new Object();
+    }
+
+    @Benchmark
+    public Object accessBySite() {
+        site.set(holder, value);
+        return site.get(holder);
+    }
+
+    @Benchmark
+    public Object accessByTogglingAccessibility() {
+        ReflectUtils.setField(holder, field, value);
+        return ReflectUtils.getFieldValue(holder, field);
+    }
+
+    public static class Holder {
+        @Inject
+        private Object value;
+    }
+}
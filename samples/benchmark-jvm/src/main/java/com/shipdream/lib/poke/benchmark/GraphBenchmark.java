@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Kejun Xia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shipdream.lib.poke.benchmark;
+
+import com.shipdream.lib.poke.Provider;
+import com.shipdream.lib.poke.ScopeCache;
+import com.shipdream.lib.poke.SimpleGraph;
+import com.shipdream.lib.poke.exception.PokeException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Benchmarks {@link SimpleGraph#inject(Object, Class)}, {@link SimpleGraph#release(Object, Class)},
+ * {@link SimpleGraph#reference(Class, java.lang.annotation.Annotation, Class)} and
+ * {@link SimpleGraph#dereference(Object, Class, java.lang.annotation.Annotation, Class)} against
+ * graphs of different shapes.
+ *
+ * <p>When {@link #scoped} is true all providers share a {@link ScopeCache} and an extra instance
+ * of the root is kept injected during the whole trial, so the measured rounds hit the cache like
+ * an app holding its singletons would. Otherwise every round creates the whole object tree.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+    public enum Shape {
+        /**
+         * One object with 10 injected fields
+         */
+        FLAT,
+        /**
+         * One object with 10 injected fields each of which has 10 injected fields
+         */
+        NESTED,
+        /**
+         * A chain of 10 objects each of which injects the next one
+         */
+        DEEP_CHAIN,
+        /**
+         * One object with 10 fields of the same type but different qualifiers
+         */
+        QUALIFIED
+    }
+
+    @Param({"FLAT", "NESTED", "DEEP_CHAIN", "QUALIFIED"})
+    public Shape shape;
+
+    @Param({"false", "true"})
+    public boolean scoped;
+
+    private SimpleGraph graph;
+    private Class rootType;
+    private Object target;
+    private Object pinned;
+
+    @Setup
+    public void setUp() throws Exception {
+        graph = new SimpleGraph();
+        ScopeCache scopeCache = scoped ? new ScopeCache() : null;
+
+        switch (shape) {
+            case FLAT:
+                rootType = Flat.class;
+                graph.register(Leaf.class, Leaf.class, scopeCache);
+                break;
+            case NESTED:
+                rootType = Nested.class;
+                graph.register(Branch.class, Branch.class, scopeCache);
+                graph.register(Leaf.class, Leaf.class, scopeCache);
+                break;
+            case DEEP_CHAIN:
+                rootType = Chain0.class;
+                Class[] chain = {Chain1.class, Chain2.class, Chain3.class, Chain4.class,
+                        Chain5.class, Chain6.class, Chain7.class, Chain8.class, Chain9.class};
+                for (Class type : chain) {
+                    graph.register(type, type, scopeCache);
+                }
+                break;
+            case QUALIFIED:
+                rootType = Qualified.class;
+                for (Field field : Qualified.class.getDeclaredFields()) {
+                    Provider<Leaf> provider = new Provider<Leaf>(Leaf.class,
+                            field.getAnnotation(Named.class)) {
+                        @Override
+                        protected Leaf createInstance() {
+                            return new Leaf();
+                        }
+                    };
+                    provider.setScopeCache(scopeCache);
+                    graph.register(provider);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        graph.register(rootType, rootType, scopeCache);
+
+        target = rootType.newInstance();
+        if (scoped) {
+            pinned = rootType.newInstance();
+            graph.inject(pinned, Inject.class);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws PokeException {
+        if (pinned != null) {
+            graph.release(pinned, Inject.class);
+            pinned = null;
+        }
+    }
+
+    @Benchmark
+    public Object injectAndRelease() throws PokeException {
+        graph.inject(target, Inject.class);
+        graph.release(target, Inject.class);
+        return target;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public Object referenceAndDereference() throws PokeException {
+        Object instance = graph.reference(rootType, null, Inject.class);
+        graph.dereference(instance, rootType, null, Inject.class);
+        return instance;
+    }
+
+    public static class Leaf {
+    }
+
+    public static class Flat {
+        @Inject Leaf f0;
+        @Inject Leaf f1;
+        @Inject Leaf f2;
+        @Inject Leaf f3;
+        @Inject Leaf f4;
+        @Inject Leaf f5;
+        @Inject Leaf f6;
+        @Inject Leaf f7;
+        @Inject Leaf f8;
+        @Inject Leaf f9;
+    }
+
+    public static class Branch extends Flat {
+    }
+
+    public static class Nested {
+        @Inject Branch b0;
+        @Inject Branch b1;
+        @Inject Branch b2;
+        @Inject Branch b3;
+        @Inject Branch b4;
+        @Inject Branch b5;
+        @Inject Branch b6;
+        @Inject Branch b7;
+        @Inject Branch b8;
+        @Inject Branch b9;
+    }
+
+    public static class Qualified {
+        @Inject @Named("q0") Leaf q0;
+        @Inject @Named("q1") Leaf q1;
+        @Inject @Named("q2") Leaf q2;
+        @Inject @Named("q3") Leaf q3;
+        @Inject @Named("q4") Leaf q4;
+        @Inject @Named("q5") Leaf q5;
+        @Inject @Named("q6") Leaf q6;
+        @Inject @Named("q7") Leaf q7;
+        @Inject @Named("q8") Leaf q8;
+        @Inject @Named("q9") Leaf q9;
+    }
+
+    public static class Chain0 {
+        @Inject Chain1 next;
+    }
+
+    public static class Chain1 {
+        @Inject Chain2 next;
+    }
+
+    public static class Chain2 {
+        @Inject Chain3 next;
+    }
+
+    public static class Chain3 {
+        @Inject Chain4 next;
+    }
+
+    public static class Chain4 {
+        @Inject Chain5 next;
+    }
+
+    public static class Chain5 {
+        @Inject Chain6 next;
+    }
+
+    public static class Chain6 {
+        @Inject Chain7 next;
+    }
+
+    public static class Chain7 {
+        @Inject Chain8 next;
+    }
+
+    public static class Chain8 {
+        @Inject Chain9 next;
+    }
+
+    public static class Chain9 {
+    }
+}